@@ -20,6 +20,8 @@ import java.io.FileFilter;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -41,6 +43,10 @@ import nl.cad.tpsparse.csv.CsvReader;
 import nl.cad.tpsparse.csv.CsvWriter;
 import nl.cad.tpsparse.csv.ImmediateCsvWriter;
 import nl.cad.tpsparse.tps.NotATopSpeedFileException;
+import nl.cad.tpsparse.tps.IndexCollector;
+import nl.cad.tpsparse.tps.PageCache;
+import nl.cad.tpsparse.tps.PageIndex;
+import nl.cad.tpsparse.tps.ScanPlan;
 import nl.cad.tpsparse.tps.TpsBlock;
 import nl.cad.tpsparse.tps.TpsFile;
 import nl.cad.tpsparse.tps.TpsFile.DetailVisitor;
@@ -49,6 +55,8 @@ import nl.cad.tpsparse.tps.TpsRecord;
 import nl.cad.tpsparse.tps.record.FieldDefinitionRecord;
 import nl.cad.tpsparse.tps.record.IndexDefinitionRecord;
 import nl.cad.tpsparse.tps.record.MemoDefinitionRecord;
+import nl.cad.tpsparse.tps.record.Projection;
+import nl.cad.tpsparse.tps.record.RowPredicate;
 import nl.cad.tpsparse.tps.record.TableDefinitionRecord;
 import nl.cad.tpsparse.util.Utils;
 
@@ -97,6 +105,22 @@ public class Main {
         private boolean direct = false;
         @Parameter(names = { "-verbose" }, description = "more verbose output.")
         private boolean verbose = false;
+        @Parameter(names = { "-mmap" }, description = "memory maps the TPS file instead of loading it into memory, useful for large files.")
+        private boolean map = false;
+        @Parameter(names = { "-pageIndex" }, description = "keeps an index of the pages next to the TPS file (.pages), so unchanged files are reopened faster.")
+        private boolean pageIndex = false;
+        @Parameter(names = { "-threads" }, description = "number of threads used to find, decompress and parse the pages in the TPS file.")
+        private int threads = 1;
+        @Parameter(names = { "-cache" }, description = "megabytes of parsed pages to keep in between passes over the TPS file.")
+        private int cache = 0;
+        @Parameter(names = { "-columns" }, description = "comma separated names of the fields and memos to export, in the order they should appear.")
+        private List<String> columns;
+        @Parameter(names = { "-where" }, description = "only exports rows matching name=value, name=value1|value2 or name=min..max. Can be repeated, all must match.", splitter = NoSplitter.class)
+        private List<String> where;
+        @Parameter(names = { "-trim" }, description = "removes trailing spaces from fixed length strings.")
+        private boolean trim = false;
+        @Parameter(names = { "-dictionary" }, description = "number of distinct values per string column that share a single String, saves memory when buffering.")
+        private int dictionary = 0;
     }
 
     public static void main(String[] args) {
@@ -176,7 +200,7 @@ public class Main {
             }
             //
             if (args.index) {
-                index(tpsFile, tableDefinitions);
+                index(tpsFile, tableDefinitions, args.ignoreErrors);
             }
             //
             if (args.layout) {
@@ -185,7 +209,7 @@ public class Main {
             //
             if (args.targetFile != null) {
                 //
-                for (Map.Entry<Integer, TableDefinitionRecord> table : tableDefinitions.entrySet()) {
+                for (Map.Entry<Integer, TableDefinitionRecord> table : selectTables(tableDefinitions, args.columns, args.where).entrySet()) {
                     //
                     CsvWriter csv = openOutputCsvFile(args, tableDefinitions, table);
                     try {
@@ -197,6 +221,16 @@ public class Main {
                         }
                         tpsToCsv.setIgnoreErrors(args.ignoreErrors);
                         tpsToCsv.setVerbose(args.verbose);
+                        if (args.columns != null) {
+                            tpsToCsv.setProjection(Projection.matching(table.getValue(), args.columns));
+                        }
+                        if (args.where != null) {
+                            List<RowPredicate> predicates = new ArrayList<>();
+                            for (String condition : args.where) {
+                                predicates.add(RowPredicate.parse(table.getValue(), condition));
+                            }
+                            tpsToCsv.setPredicate(RowPredicate.and(predicates));
+                        }
                         tpsToCsv.run();
                     } finally {
                         finishCsvFile(args, tableDefinitions, table, csv);
@@ -213,6 +247,64 @@ public class Main {
             if (args.stackTraces) {
                 ex.printStackTrace();
             }
+        } finally {
+            tpsFile.close();
+        }
+    }
+
+    /**
+     * selects the tables to export. The -columns are matched per table, a
+     * table that has none of them is skipped. A table that lacks the field of
+     * any of the -where conditions is skipped as well, as its rows cannot be
+     * filtered.
+     * @param tableDefinitions the tables of the file.
+     * @param columns the names of the columns to export, null for all.
+     * @param where the conditions, null for none.
+     * @return the tables to export.
+     * @throws IllegalArgumentException if a column or the field of a condition is not in any of the tables.
+     */
+    static Map<Integer, TableDefinitionRecord> selectTables(Map<Integer, TableDefinitionRecord> tableDefinitions, List<String> columns,
+            List<String> where) {
+        List<String> fields = new ArrayList<>();
+        if (where != null) {
+            for (String condition : where) {
+                fields.add(RowPredicate.getFieldName(condition));
+            }
+        }
+        checkKnown(tableDefinitions, columns, "column(s)");
+        checkKnown(tableDefinitions, fields, "condition field(s)");
+        Map<Integer, TableDefinitionRecord> results = new LinkedHashMap<>();
+        for (Map.Entry<Integer, TableDefinitionRecord> table : tableDefinitions.entrySet()) {
+            String missing = null;
+            for (String field : fields) {
+                if (!Projection.hasColumn(table.getValue(), field)) {
+                    missing = field;
+                }
+            }
+            if (columns != null && Projection.matching(table.getValue(), columns).isEmpty()) {
+                System.out.println("Skipping table " + getTableName(table) + ", it has none of the columns " + columns + ".");
+            } else if (missing != null) {
+                System.out.println("Skipping table " + getTableName(table) + ", it has no field '" + missing + "' to filter on.");
+            } else {
+                results.put(table.getKey(), table.getValue());
+            }
+        }
+        return results;
+    }
+
+    private static void checkKnown(Map<Integer, TableDefinitionRecord> tableDefinitions, List<String> names, String what) {
+        if (names != null) {
+            List<String> unknown = new ArrayList<>(names);
+            for (TableDefinitionRecord def : tableDefinitions.values()) {
+                for (String name : names) {
+                    if (Projection.hasColumn(def, name)) {
+                        unknown.remove(name);
+                    }
+                }
+            }
+            if (!unknown.isEmpty()) {
+                throw new IllegalArgumentException("Unknown " + what + " " + unknown + ", not in any of the tables");
+            }
         }
     }
 
@@ -284,26 +376,56 @@ public class Main {
     }
 
     private static TpsFile openFile(Args args) throws IOException {
+        TpsFile tpsFile = openTpsFile(args);
+        tpsFile.setParallelism(args.threads);
+        try {
+            tpsFile.setTrimStrings(args.trim);
+            tpsFile.setStringDictionarySize(args.dictionary);
+            if (args.cache > 0) {
+                tpsFile.setPageCache(new PageCache(args.cache * 1024L * 1024L));
+            }
+            if (args.pageIndex) {
+                PageIndex.open(tpsFile, args.sourceFile, args.ignoreErrors);
+            }
+        } catch (RuntimeException ex) {
+            tpsFile.close();
+            throw ex;
+        }
+        return tpsFile;
+    }
+
+    private static TpsFile openTpsFile(Args args) throws IOException {
         try {
             if (args.verbose) {
                 System.out.println("Opening " + args.sourceFile);
             }
-            TpsFile tpsFile = new TpsFile(args.sourceFile);
+            TpsFile tpsFile = new TpsFile(args.sourceFile, args.map);
             tpsFile.setStringEncoding(Charset.forName(args.tpsEncoding));
             tpsFile.getHeader();
             return tpsFile;
         } catch (NotATopSpeedFileException ex) {
             if (!StringUtils.isEmpty(args.password)) {
                 System.out.println("Encrypted file, using set password.");
-                return new TpsFile(args.sourceFile, args.password);
+                return new TpsFile(args.sourceFile, args.password, args.map);
             } else {
                 throw ex;
             }
         }
     }
 
-    private static void index(TpsFile tps, Map<Integer, TableDefinitionRecord> tableDefinitions) {
+    private static void index(TpsFile tps, Map<Integer, TableDefinitionRecord> tableDefinitions, boolean ignoreErrors) {
+        // Collect all indexes in a single pass.
+        ScanPlan plan = new ScanPlan();
+        List<IndexCollector> collectors = new ArrayList<>();
+        for (Map.Entry<Integer, TableDefinitionRecord> table : tableDefinitions.entrySet()) {
+            for (int t = 0; t < table.getValue().getIndexes().size(); t++) {
+                collectors.add(plan.add(new IndexCollector(table.getKey(), t)));
+            }
+        }
+        tps.scan(plan, ignoreErrors);
+        //
         StringBuilder sb = new StringBuilder();
+        int collector = 0;
         for (Map.Entry<Integer, TableDefinitionRecord> table : tableDefinitions.entrySet()) {
             TableDefinitionRecord def = table.getValue();
             for (int t = 0; t < def.getIndexes().size(); t++) {
@@ -311,7 +433,7 @@ public class Main {
                 sb.append(field.getName() + " : ");
                 //
                 boolean first = false;
-                for (Integer idx : tps.getIndexRecordIds(table.getKey(), t)) {
+                for (Integer idx : collectors.get(collector++).getRecordIds()) {
                     if (first) {
                         sb.append(", ");
                     } else {
@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.beust.jcommander.converters.IParameterSplitter;
+
+/**
+ * NoSplitter, keeps repeatable parameters that may contain commas intact.
+ * @author E.Hooijmeijer
+ *
+ */
+public class NoSplitter implements IParameterSplitter {
+
+    /**
+     * {@inheritDoc}.
+     */
+    @Override
+    public List<String> split(String value) {
+        return Collections.singletonList(value);
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2021 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+/**
+ * ByteSource on top of a heap byte array.
+ * @author E.Hooijmeijer
+ */
+public class ArrayByteSource implements ByteSource {
+
+    private final byte[] data;
+
+    public ArrayByteSource(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * @return the backing array.
+     */
+    public byte[] array() {
+        return data;
+    }
+
+    @Override
+    public long length() {
+        return data.length;
+    }
+
+    @Override
+    public byte get(long pos) {
+        return data[(int) pos];
+    }
+
+    @Override
+    public void get(long pos, byte[] target, int targetOfs, int len) {
+        System.arraycopy(data, (int) pos, target, targetOfs, len);
+    }
+
+    @Override
+    public void put(long pos, byte value) {
+        data[(int) pos] = value;
+    }
+
+    @Override
+    public void put(long pos, byte[] values, int valuesOfs, int len) {
+        System.arraycopy(values, valuesOfs, data, (int) pos, len);
+    }
+
+}
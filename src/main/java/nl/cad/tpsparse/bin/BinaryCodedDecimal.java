@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Decodes binary coded decimals at nibble level. The first nibble holds the
+ * sign (zero for positive), the other nibbles hold one digit each. The
+ * number of digits after the decimal point (the scale) is not stored in the
+ * value but in the field definition.
+ * @author E.Hooijmeijer
+ */
+public final class BinaryCodedDecimal {
+
+    /**
+     * the number of digits that always fit in a long.
+     */
+    public static final int MAX_LONG_DIGITS = 18;
+
+    private BinaryCodedDecimal() {
+        // Utility Class.
+    }
+
+    private static int nibble(byte[] data, int ofs, int idx) {
+        int b = data[ofs + (idx >> 1)];
+        return ((idx & 1) == 0 ? b >> 4 : b) & 0x0F;
+    }
+
+    private static void checkRange(byte[] data, int ofs, int len) {
+        if (len < 1 || ofs < 0 || ofs + len > data.length) {
+            throw new ArrayIndexOutOfBoundsException("Array index out of range: " + (ofs + len));
+        }
+    }
+
+    /**
+     * @param data the bytes.
+     * @param ofs the offset of the number.
+     * @return true if the number is negative.
+     */
+    public static boolean isNegative(byte[] data, int ofs) {
+        return nibble(data, ofs, 0) != 0;
+    }
+
+    /**
+     * @param len the length of the number in bytes.
+     * @return the number of digits.
+     */
+    public static int digits(int len) {
+        return len * 2 - 1;
+    }
+
+    /**
+     * decodes the number without its decimal point.
+     * @param data the bytes.
+     * @param ofs the offset of the number.
+     * @param len the length of the number in bytes, at most 9 (18 digits).
+     * @return the unscaled value.
+     * @throws NumberFormatException if there are too many digits or a nibble is not a digit.
+     */
+    public static long unscaled(byte[] data, int ofs, int len) {
+        checkRange(data, ofs, len);
+        int digits = digits(len);
+        if (digits > MAX_LONG_DIGITS) {
+            throw new NumberFormatException(digits + " digits do not fit in a long");
+        }
+        long value = 0;
+        for (int t = 1; t <= digits; t++) {
+            int digit = nibble(data, ofs, t);
+            if (digit > 9) {
+                throw new NumberFormatException("Bad BCD digit " + digit);
+            }
+            value = value * 10 + digit;
+        }
+        return isNegative(data, ofs) ? -value : value;
+    }
+
+    /**
+     * decodes the number of any length.
+     * @param data the bytes.
+     * @param ofs the offset of the number.
+     * @param len the length of the number in bytes.
+     * @param scale the number of digits after the decimal point.
+     * @return the value.
+     * @throws NumberFormatException if a nibble is not a digit.
+     */
+    public static BigDecimal toBigDecimal(byte[] data, int ofs, int len, int scale) {
+        if (digits(len) <= MAX_LONG_DIGITS) {
+            return BigDecimal.valueOf(unscaled(data, ofs, len), scale);
+        }
+        checkRange(data, ofs, len);
+        char[] digits = new char[digits(len) + 1];
+        digits[0] = (isNegative(data, ofs) ? '-' : '+');
+        for (int t = 1; t < digits.length; t++) {
+            int digit = nibble(data, ofs, t);
+            if (digit > 9) {
+                throw new NumberFormatException("Bad BCD digit " + digit);
+            }
+            digits[t] = (char) ('0' + digit);
+        }
+        return new BigDecimal(new BigInteger(new String(digits)), scale);
+    }
+
+    /**
+     * @param len the length of the number in bytes.
+     * @param scale the number of digits after the decimal point.
+     * @return the maximum number of characters written by format.
+     */
+    public static int maxFormattedLength(int len, int scale) {
+        return 3 + Math.max(digits(len), scale);
+    }
+
+    /**
+     * writes the number as decimal text, with leading zeros removed and
+     * exactly scale digits after the decimal point. Nibbles that are not a
+     * digit are written as lowercase hex.
+     * @param data the bytes.
+     * @param ofs the offset of the number.
+     * @param len the length of the number in bytes.
+     * @param scale the number of digits after the decimal point.
+     * @param out the buffer, at least maxFormattedLength long from outOfs.
+     * @param outOfs the offset in the buffer.
+     * @return the offset in the buffer after the last written character.
+     */
+    public static int format(byte[] data, int ofs, int len, int scale, char[] out, int outOfs) {
+        checkRange(data, ofs, len);
+        int pos = outOfs;
+        if (isNegative(data, ofs)) {
+            out[pos++] = '-';
+        }
+        int digits = digits(len);
+        int intDigits = digits - scale;
+        // the integer part without leading zeros, but with at least one digit.
+        int first = 1;
+        while (first < intDigits && nibble(data, ofs, first) == 0) {
+            first++;
+        }
+        if (intDigits <= 0) {
+            out[pos++] = '0';
+        }
+        for (int t = first; t <= intDigits; t++) {
+            out[pos++] = Character.forDigit(nibble(data, ofs, t), 16);
+        }
+        if (scale > 0) {
+            out[pos++] = '.';
+            for (int t = intDigits + 1; t <= digits; t++) {
+                out[pos++] = (t < 1 ? '0' : Character.forDigit(nibble(data, ofs, t), 16));
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @param data the bytes.
+     * @param ofs the offset of the number.
+     * @param len the length of the number in bytes.
+     * @param scale the number of digits after the decimal point.
+     * @return the number as decimal text.
+     */
+    public static String toString(byte[] data, int ofs, int len, int scale) {
+        char[] out = new char[maxFormattedLength(len, scale)];
+        return new String(out, 0, format(data, ofs, len, scale, out, 0));
+    }
+}
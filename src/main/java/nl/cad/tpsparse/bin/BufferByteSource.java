@@ -0,0 +1,72 @@
+/*
+ *  Copyright 2021 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * ByteSource on top of a single ByteBuffer, which may be a heap, direct or
+ * memory mapped buffer. Only absolute operations are used, so the position
+ * and limit of the buffer are left alone.
+ * @author E.Hooijmeijer
+ */
+public class BufferByteSource implements ByteSource {
+
+    private final ByteBuffer data;
+
+    public BufferByteSource(ByteBuffer data) {
+        this.data = data;
+    }
+
+    @Override
+    public long length() {
+        return data.limit();
+    }
+
+    @Override
+    public byte get(long pos) {
+        return data.get((int) pos);
+    }
+
+    @Override
+    public void get(long pos, byte[] target, int targetOfs, int len) {
+        if (data.hasArray()) {
+            System.arraycopy(data.array(), data.arrayOffset() + (int) pos, target, targetOfs, len);
+        } else {
+            ByteBuffer tmp = data.duplicate();
+            ((Buffer) tmp).position((int) pos);
+            tmp.get(target, targetOfs, len);
+        }
+    }
+
+    @Override
+    public void put(long pos, byte value) {
+        data.put((int) pos, value);
+    }
+
+    @Override
+    public void put(long pos, byte[] values, int valuesOfs, int len) {
+        if (data.hasArray()) {
+            System.arraycopy(values, valuesOfs, data.array(), data.arrayOffset() + (int) pos, len);
+        } else {
+            ByteBuffer tmp = data.duplicate();
+            ((Buffer) tmp).position((int) pos);
+            tmp.put(values, valuesOfs, len);
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2021 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+/**
+ * The bytes underneath a RandomAccess. Implementations exist for heap arrays,
+ * (direct or memory mapped) ByteBuffers, segmented mappings of files larger
+ * than 2GB and positional reads on a FileChannel.
+ * 
+ * All operations are absolute, a source has no position of its own. This
+ * allows any number of RandomAccess views to share a single source.
+ * @author E.Hooijmeijer
+ */
+public interface ByteSource {
+
+    /**
+     * @return the number of bytes in the source.
+     */
+    long length();
+
+    /**
+     * @param pos the position.
+     * @return the byte at the given position.
+     */
+    byte get(long pos);
+
+    /**
+     * copies a range of bytes into an array.
+     * @param pos the position in the source.
+     * @param target the array to copy into.
+     * @param targetOfs the offset in the array.
+     * @param len the number of bytes.
+     */
+    void get(long pos, byte[] target, int targetOfs, int len);
+
+    /**
+     * @param pos the position.
+     * @param value the byte to write at the given position.
+     * @throws UnsupportedOperationException if the source is read only.
+     */
+    void put(long pos, byte value);
+
+    /**
+     * copies a range of bytes into the source.
+     * @param pos the position in the source.
+     * @param values the bytes to write.
+     * @param valuesOfs the offset in the bytes.
+     * @param len the number of bytes.
+     * @throws UnsupportedOperationException if the source is read only.
+     */
+    void put(long pos, byte[] values, int valuesOfs, int len);
+
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2021 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read only ByteSource that uses positional reads on a FileChannel. Recently
+ * used pages of the file are kept in a bounded, least recently used, cache.
+ * This keeps both the heap usage and the address space usage constant,
+ * regardless of the size of the file.
+ * @author E.Hooijmeijer
+ */
+public class ChannelByteSource implements ByteSource, Closeable {
+
+    public static final int DEFAULT_PAGE_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_PAGES = 256;
+
+    private final FileChannel channel;
+    private final long length;
+    private final int shift;
+    private final long mask;
+    private final Map<Long, byte[]> pages;
+
+    private long lastPageNr = -1;
+    private byte[] lastPage;
+
+    public ChannelByteSource(FileChannel channel) throws IOException {
+        this(channel, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * @param channel the channel to read from.
+     * @param pageSize the size of the cached pages, must be a power of two.
+     * @param maxPages the maximum number of pages to cache.
+     * @throws IOException if the size of the channel cannot be determined.
+     */
+    public ChannelByteSource(FileChannel channel, int pageSize, final int maxPages) throws IOException {
+        if (Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("Page size must be a power of two (" + pageSize + ")");
+        }
+        this.channel = channel;
+        this.length = channel.size();
+        this.shift = Integer.numberOfTrailingZeros(pageSize);
+        this.mask = pageSize - 1;
+        this.pages = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public synchronized byte get(long pos) {
+        return page(pos >>> shift)[(int) (pos & mask)];
+    }
+
+    @Override
+    public synchronized void get(long pos, byte[] target, int targetOfs, int len) {
+        int done = 0;
+        while (done < len) {
+            byte[] page = page((pos + done) >>> shift);
+            int ofs = (int) ((pos + done) & mask);
+            int chunk = Math.min(len - done, page.length - ofs);
+            System.arraycopy(page, ofs, target, targetOfs + done, chunk);
+            done += chunk;
+        }
+    }
+
+    @Override
+    public void put(long pos, byte value) {
+        throw new UnsupportedOperationException("ChannelByteSource is read only.");
+    }
+
+    @Override
+    public void put(long pos, byte[] values, int valuesOfs, int len) {
+        throw new UnsupportedOperationException("ChannelByteSource is read only.");
+    }
+
+    private byte[] page(long pageNr) {
+        if (pageNr == lastPageNr) {
+            return lastPage;
+        }
+        byte[] page = pages.get(pageNr);
+        if (page == null) {
+            page = readPage(pageNr);
+            pages.put(pageNr, page);
+        }
+        lastPageNr = pageNr;
+        lastPage = page;
+        return page;
+    }
+
+    private byte[] readPage(long pageNr) {
+        long start = pageNr << shift;
+        byte[] page = new byte[(int) Math.min(mask + 1, length - start)];
+        ByteBuffer buffer = ByteBuffer.wrap(page);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file at " + (start + buffer.position()));
+                }
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Error reading page " + pageNr, ex);
+        }
+        return page;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
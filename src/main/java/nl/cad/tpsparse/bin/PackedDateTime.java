@@ -0,0 +1,294 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Works with TPS dates and times as ints, without creating date objects.
+ *
+ * A DATE is stored as 0xYYYYMMDD (year in the upper 16 bits, then month and
+ * day), with 0 meaning no date. A TIME is stored as 0xHHMMxxxx (hours and
+ * minutes in the upper bytes); the lower bytes are not used, so a time is
+ * represented here by its minute of the day.
+ *
+ * Values are validated like the date and time objects would: a month outside
+ * 1-12, a day beyond the end of the month, an hour above 23 or a minute above
+ * 59 are rejected with an IllegalArgumentException.
+ *
+ * @author E.Hooijmeijer
+ */
+public final class PackedDateTime {
+
+    private PackedDateTime() {
+        // Utility Class.
+    }
+
+    /**
+     * @param date the packed date.
+     * @return true if there is no date.
+     */
+    public static boolean isNull(int date) {
+        return date == 0;
+    }
+
+    public static int year(int date) {
+        return date >>> 16;
+    }
+
+    public static int month(int date) {
+        return (date >> 8) & 0xFF;
+    }
+
+    public static int day(int date) {
+        return date & 0xFF;
+    }
+
+    /**
+     * @param time the packed time.
+     * @return the hour of the day.
+     */
+    public static int hours(int time) {
+        return (time & 0x7F000000) >> 24;
+    }
+
+    /**
+     * @param time the packed time.
+     * @return the minute of the hour.
+     */
+    public static int minutes(int time) {
+        return (time & 0x00FF0000) >> 16;
+    }
+
+    /**
+     * @param date the packed date, not null.
+     * @return true if the month and day exist in the (proleptic gregorian) calendar.
+     */
+    public static boolean isValidDate(int date) {
+        int month = month(date);
+        int day = day(date);
+        return month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year(date), month);
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+        case 2:
+            return ((year % 4 == 0 && year % 100 != 0) || year % 400 == 0) ? 29 : 28;
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+
+    /**
+     * @param date the packed date, not null.
+     * @return the date.
+     * @throws IllegalArgumentException if the date does not exist.
+     */
+    public static int checkDate(int date) {
+        if (!isValidDate(date)) {
+            throw new IllegalArgumentException("Invalid date " + year(date) + "-" + month(date) + "-" + day(date));
+        }
+        return date;
+    }
+
+    /**
+     * @param time the packed time.
+     * @return true if the hours and minutes are within a day.
+     */
+    public static boolean isValidTime(int time) {
+        return hours(time) < 24 && minutes(time) < 60;
+    }
+
+    /**
+     * @param year the year (0-65535).
+     * @param month the month (1-12).
+     * @param day the day of the month.
+     * @return the packed date.
+     */
+    public static int date(int year, int month, int day) {
+        return (year << 16) | (month << 8) | day;
+    }
+
+    /**
+     * @param hours the hour of the day.
+     * @param minutes the minute of the hour.
+     * @return the packed time.
+     */
+    public static int time(int hours, int minutes) {
+        return (hours << 24) | (minutes << 16);
+    }
+
+    /**
+     * parses a date in the same form as it is formatted.
+     * @param value the date as yyyy-MM-dd.
+     * @return the packed date.
+     * @throws IllegalArgumentException if the value is not a valid date or
+     * cannot be packed.
+     */
+    public static int parseDate(String value) {
+        LocalDate date;
+        try {
+            date = LocalDate.parse(value);
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("Bad date '" + value + "', expected yyyy-MM-dd", ex);
+        }
+        if (date.getYear() < 0 || date.getYear() > 0xFFFF) {
+            throw new IllegalArgumentException("Date '" + value + "' is out of range");
+        }
+        return date(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+    }
+
+    /**
+     * parses a time in the same form as it is formatted. Seconds are allowed
+     * but ignored, as they are not stored.
+     * @param value the time as HH:mm.
+     * @return the packed time.
+     * @throws IllegalArgumentException if the value is not a valid time.
+     */
+    public static int parseTime(String value) {
+        LocalTime time;
+        try {
+            time = LocalTime.parse(value);
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("Bad time '" + value + "', expected HH:mm", ex);
+        }
+        return time(time.getHour(), time.getMinute());
+    }
+
+    /**
+     * @param date the packed date, not null.
+     * @return the number of days since 1970-01-01.
+     * @throws IllegalArgumentException if the date does not exist.
+     */
+    public static int epochDay(int date) {
+        checkDate(date);
+        return epochDay(year(date), month(date), day(date));
+    }
+
+    /**
+     * converts a date in the proleptic gregorian calendar into a day number.
+     * @param year the year.
+     * @param month the month (1-12).
+     * @param day the day of the month.
+     * @return the number of days since 1970-01-01.
+     */
+    public static int epochDay(int year, int month, int day) {
+        int y = (month <= 2 ? year - 1 : year);
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    /**
+     * @param time the packed time.
+     * @return the minute of the day.
+     * @throws IllegalArgumentException if the hours or minutes are out of range.
+     */
+    public static int minuteOfDay(int time) {
+        if (!isValidTime(time)) {
+            throw new IllegalArgumentException("Invalid time " + hours(time) + ":" + minutes(time));
+        }
+        return hours(time) * 60 + minutes(time);
+    }
+
+    /**
+     * appends the date as yyyy-MM-dd.
+     * @param sb the target.
+     * @param date the packed date, not null.
+     * @return the target.
+     * @throws IllegalArgumentException if the date does not exist.
+     */
+    public static StringBuilder appendDate(StringBuilder sb, int date) {
+        checkDate(date);
+        int year = year(date);
+        if (year < 1000) {
+            appendTwoDigits(sb, year / 100);
+            appendTwoDigits(sb, year % 100);
+        } else {
+            sb.append(year);
+        }
+        sb.append('-');
+        appendTwoDigits(sb, month(date));
+        sb.append('-');
+        appendTwoDigits(sb, day(date));
+        return sb;
+    }
+
+    /**
+     * appends the time as HH:mm.
+     * @param sb the target.
+     * @param minuteOfDay the minute of the day.
+     * @return the target.
+     * @throws IllegalArgumentException if the minute is not within a day.
+     */
+    public static StringBuilder appendTime(StringBuilder sb, int minuteOfDay) {
+        if (minuteOfDay < 0 || minuteOfDay >= 24 * 60) {
+            throw new IllegalArgumentException("Invalid minute of the day " + minuteOfDay);
+        }
+        appendTwoDigits(sb, minuteOfDay / 60);
+        sb.append(':');
+        appendTwoDigits(sb, minuteOfDay % 60);
+        return sb;
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, int value) {
+        if (value < 10) {
+            sb.append('0');
+        }
+        sb.append(value);
+    }
+
+    /**
+     * @param date the packed date.
+     * @return the date as yyyy-MM-dd, or null if there is no date.
+     */
+    public static String formatDate(int date) {
+        return (isNull(date) ? null : appendDate(new StringBuilder(10), date).toString());
+    }
+
+    /**
+     * @param minuteOfDay the minute of the day.
+     * @return the time as HH:mm.
+     */
+    public static String formatTime(int minuteOfDay) {
+        return appendTime(new StringBuilder(5), minuteOfDay).toString();
+    }
+
+    /**
+     * @param date the packed date.
+     * @return the date, or null if there is no date.
+     */
+    public static LocalDate toLocalDate(int date) {
+        return (isNull(date) ? null : LocalDate.of(year(date), month(date), day(date)));
+    }
+
+    /**
+     * @param minuteOfDay the minute of the day.
+     * @return the time.
+     */
+    public static LocalTime toLocalTime(int minuteOfDay) {
+        return LocalTime.of(minuteOfDay / 60, minuteOfDay % 60);
+    }
+}
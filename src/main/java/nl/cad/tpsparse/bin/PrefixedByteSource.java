@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+/**
+ * Read only ByteSource that joins a small prefix with a region of another
+ * ByteSource. Used for TpsRecords that reuse the first bytes of the previous
+ * record, so they can be read without copying the rest of the record.
+ * @author E.Hooijmeijer
+ */
+public class PrefixedByteSource implements ByteSource {
+
+    private final byte[] prefix;
+    private final ByteSource tail;
+    private final long tailOfs;
+    private final long tailLength;
+
+    public PrefixedByteSource(byte[] prefix, ByteSource tail, long tailOfs, long tailLength) {
+        this.prefix = prefix;
+        this.tail = tail;
+        this.tailOfs = tailOfs;
+        this.tailLength = tailLength;
+    }
+
+    @Override
+    public long length() {
+        return prefix.length + tailLength;
+    }
+
+    @Override
+    public byte get(long pos) {
+        if (pos < prefix.length) {
+            return prefix[(int) pos];
+        }
+        return tail.get(tailOfs + pos - prefix.length);
+    }
+
+    @Override
+    public void get(long pos, byte[] target, int targetOfs, int len) {
+        if (pos < prefix.length) {
+            int n = (int) Math.min(len, prefix.length - pos);
+            System.arraycopy(prefix, (int) pos, target, targetOfs, n);
+            pos += n;
+            targetOfs += n;
+            len -= n;
+        }
+        if (len > 0) {
+            tail.get(tailOfs + pos - prefix.length, target, targetOfs, len);
+        }
+    }
+
+    @Override
+    public void put(long pos, byte value) {
+        throw new UnsupportedOperationException("PrefixedByteSource is read only.");
+    }
+
+    @Override
+    public void put(long pos, byte[] values, int valuesOfs, int len) {
+        throw new UnsupportedOperationException("PrefixedByteSource is read only.");
+    }
+
+    public byte[] getPrefix() {
+        return prefix;
+    }
+}
@@ -15,62 +15,115 @@
  */
 package nl.cad.tpsparse.bin;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
- * Allows random-access reading of primitives from byte array. Supports little
- * endian and big endian integer formats. IEEE floating point and various styles
- * of strings.
+ * Allows random-access reading of primitives from a ByteSource, such as a byte
+ * array or a (possibly memory mapped) ByteBuffer. Supports little endian and
+ * big endian integer formats. IEEE floating point and various styles of
+ * strings. Offsets are 64 bit.
  * @author E.Hooijmeijer
  */
 public class RandomAccess {
 
-    private int ofs = 0;
-    private byte[] data;
-    private List<Integer> positionStack = new ArrayList<Integer>();
-    private int baseOfs;
-    private int length;
+    private long ofs = 0;
+    private ByteSource source;
+    private long[] positionStack;
+    private int stackSize;
+    private long baseOfs;
+    private long length;
 
     public RandomAccess(byte[] data) {
-        this.ofs = 0;
-        this.data = data;
-        this.baseOfs = 0;
-        this.length = data.length;
+        this(new ArrayByteSource(data));
     }
 
     public RandomAccess(byte[] data, int baseOfs, int length) {
+        this(new ArrayByteSource(data), baseOfs, length);
+    }
+
+    /**
+     * creates a new RandomAccess on top of a ByteBuffer. The buffer may be a
+     * MappedByteBuffer, in which case the data is paged in by the OS on
+     * demand instead of residing on the heap. Only absolute operations are
+     * used, so the position and limit of the buffer are left alone.
+     * @param data the buffer.
+     */
+    public RandomAccess(ByteBuffer data) {
+        this(data, 0, data.limit());
+    }
+
+    public RandomAccess(ByteBuffer data, int baseOfs, int length) {
+        this(new BufferByteSource(data), baseOfs, length);
+    }
+
+    /**
+     * creates a new RandomAccess on top of a number of consecutive segments,
+     * typically windows of a memory mapped file that is too large to be mapped
+     * at once.
+     * @param segments the segments.
+     */
+    public RandomAccess(ByteBuffer[] segments) {
+        this(segments.length == 1 ? new BufferByteSource(segments[0]) : new SegmentedByteSource(segments));
+    }
+
+    /**
+     * creates a new RandomAccess on top of any ByteSource.
+     * @param source the source.
+     */
+    public RandomAccess(ByteSource source) {
+        this(source, 0, source.length());
+    }
+
+    public RandomAccess(ByteSource source, long baseOfs, long length) {
+        this.source = source;
         this.baseOfs = baseOfs;
         this.length = length;
         this.ofs = 0;
-        this.data = data;
     }
 
     public RandomAccess(String hex) {
+        this(parseHex(hex));
+    }
+
+    private static byte[] parseHex(String hex) {
         String[] bytes = hex.split(" ");
-        data = new byte[bytes.length];
-        this.baseOfs = 0;
-        this.length = data.length;
-        for (int t = 0; t < data.length; t++) {
-            data[t] = (byte) Integer.parseInt(bytes[t], 16);
+        byte[] tmp = new byte[bytes.length];
+        for (int t = 0; t < tmp.length; t++) {
+            tmp[t] = (byte) Integer.parseInt(bytes[t], 16);
         }
+        return tmp;
+    }
+
+    private byte get(long ref) {
+        return source.get(ref);
+    }
+
+    private void put(long ref, byte value) {
+        source.put(ref, value);
     }
 
     /**
      * pushes the current position on the stack.
      */
     public void pushPosition() {
-        positionStack.add(ofs);
+        if (positionStack == null) {
+            positionStack = new long[4];
+        } else if (stackSize == positionStack.length) {
+            positionStack = Arrays.copyOf(positionStack, stackSize * 2);
+        }
+        positionStack[stackSize++] = ofs;
     }
 
     /**
      * pops the previous position from the stack.
      */
     public void popPosition() {
-        ofs = positionStack.remove(positionStack.size() - 1);
+        if (stackSize == 0) {
+            throw new IllegalStateException("Position stack is empty.");
+        }
+        ofs = positionStack[--stackSize];
     }
 
     /**
@@ -79,8 +132,8 @@ public class RandomAccess {
      */
     public int leLong() {
         checkSpace(4);
-        int ref = baseOfs + ofs;
-        int out = (data[ref] & 0xFF) | ((data[ref + 1] & 0xFF) << 8) | ((data[ref + 2] & 0xFF) << 16) | ((data[ref + 3] & 0xFF) << 24);
+        long ref = baseOfs + ofs;
+        int out = (get(ref) & 0xFF) | ((get(ref + 1) & 0xFF) << 8) | ((get(ref + 2) & 0xFF) << 16) | ((get(ref + 3) & 0xFF) << 24);
         //
         // For some records it seems that 1s complement is used to encode
         // negative numbers ?!
@@ -89,12 +142,18 @@ public class RandomAccess {
         return out;
     }
 
+    private void checkRange(long pos, int bytes) {
+        if (pos < 0 || pos + bytes > length) {
+            throw new ArrayIndexOutOfBoundsException("Array index out of range: " + (pos < 0 ? pos : pos + bytes));
+        }
+    }
+
     private void checkSpace(int bytes) {
         if (ofs + bytes > length) {
-            throw new ArrayIndexOutOfBoundsException(ofs + bytes);
+            throw new ArrayIndexOutOfBoundsException("Array index out of range: " + (ofs + bytes));
         }
         if (ofs < 0) {
-            throw new ArrayIndexOutOfBoundsException(ofs);
+            throw new ArrayIndexOutOfBoundsException("Array index out of range: " + ofs);
         }
     }
 
@@ -105,11 +164,11 @@ public class RandomAccess {
      */
     public void setLeLong(int value) {
         checkSpace(4);
-        int ref = baseOfs + ofs;
-        data[ref] = (byte) ((value >> 0) & 0xFF);
-        data[ref + 1] = (byte) ((value >> 8) & 0xFF);
-        data[ref + 2] = (byte) ((value >> 16) & 0xFF);
-        data[ref + 3] = (byte) ((value >> 24) & 0xFF);
+        long ref = baseOfs + ofs;
+        put(ref, (byte) ((value >> 0) & 0xFF));
+        put(ref + 1, (byte) ((value >> 8) & 0xFF));
+        put(ref + 2, (byte) ((value >> 16) & 0xFF));
+        put(ref + 3, (byte) ((value >> 24) & 0xFF));
         ofs += 4;
     }
 
@@ -119,8 +178,8 @@ public class RandomAccess {
      */
     public long leULong() {
         checkSpace(4);
-        int ref = baseOfs + ofs;
-        long out = (data[ref] & 0xFFL) | ((data[ref + 1] & 0xFFL) << 8L) | ((data[ref + 2] & 0xFFL) << 16L) | ((data[ref + 3] & 0xFFL) << 24L);
+        long ref = baseOfs + ofs;
+        long out = (get(ref) & 0xFFL) | ((get(ref + 1) & 0xFFL) << 8L) | ((get(ref + 2) & 0xFFL) << 16L) | ((get(ref + 3) & 0xFFL) << 24L);
         ofs += 4;
         return out;
     }
@@ -130,8 +189,8 @@ public class RandomAccess {
      */
     public int beLong() {
         checkSpace(4);
-        int ref = baseOfs + ofs;
-        int out = (data[ref + 3] & 0xFF) | ((data[ref + 2] & 0xFF) << 8) | ((data[ref + 1] & 0xFF) << 16) | ((data[ref] & 0xFF) << 24);
+        long ref = baseOfs + ofs;
+        int out = (get(ref + 3) & 0xFF) | ((get(ref + 2) & 0xFF) << 8) | ((get(ref + 1) & 0xFF) << 16) | ((get(ref) & 0xFF) << 24);
         ofs += 4;
         return out;
     }
@@ -141,54 +200,101 @@ public class RandomAccess {
      */
     public long beULong() {
         checkSpace(4);
-        int ref = baseOfs + ofs;
-        long out = (data[ref + 3] & 0xFFL) | ((data[ref + 2] & 0xFFL) << 8L) | ((data[ref + 1] & 0xFFL) << 16L) | ((data[ref + 0] & 0xFFL) << 24L);
+        long ref = baseOfs + ofs;
+        long out = (get(ref + 3) & 0xFFL) | ((get(ref + 2) & 0xFFL) << 8L) | ((get(ref + 1) & 0xFFL) << 16L) | ((get(ref + 0) & 0xFFL) << 24L);
         ofs += 4;
         return out;
     }
 
     public int leShort() {
         checkSpace(2);
-        int ref = baseOfs + ofs;
-        int out = (data[ref] & 0xFF) | ((data[ref + 1] & 0xFF) << 8);
+        long ref = baseOfs + ofs;
+        int out = (get(ref) & 0xFF) | ((get(ref + 1) & 0xFF) << 8);
         ofs += 2;
         return out;
     }
 
     public Object leUShort() {
         checkSpace(2);
-        int ref = baseOfs + ofs;
-        int out = (data[ref] & 0xFF) | ((data[ref + 1] & 0xFF) << 8);
+        long ref = baseOfs + ofs;
+        int out = (get(ref) & 0xFF) | ((get(ref + 1) & 0xFF) << 8);
         ofs += 2;
         return out;
     }
 
     public int beShort() {
         checkSpace(2);
-        int ref = baseOfs + ofs;
-        int out = (data[ref + 1] & 0xFF) | ((data[ref] & 0xFF) << 8);
+        long ref = baseOfs + ofs;
+        int out = (get(ref + 1) & 0xFF) | ((get(ref) & 0xFF) << 8);
         ofs += 2;
         return out;
     }
 
     public int leByte() {
         checkSpace(1);
-        int ref = baseOfs + ofs;
-        int out = (data[ref] & 0xFF);
+        long ref = baseOfs + ofs;
+        int out = (get(ref) & 0xFF);
         ofs += 1;
         return out;
     }
 
     public int beByte() {
         checkSpace(1);
-        int ref = baseOfs + ofs;
-        int out = (data[ref] & 0xFF);
+        long ref = baseOfs + ofs;
+        int out = (get(ref) & 0xFF);
         ofs += 1;
         return out;
     }
 
     public byte peek(int pos) {
-        return data[baseOfs + pos];
+        return get(baseOfs + pos);
+    }
+
+    /**
+     * reads an unsigned 4 byte integer at the given position without
+     * moving the current position.
+     * @param pos the position, relative to the start of this RandomAccess.
+     * @return little endian unsigned long.
+     */
+    public long peekLeULong(long pos) {
+        checkRange(pos, 4);
+        long ref = baseOfs + pos;
+        return (get(ref) & 0xFFL) | ((get(ref + 1) & 0xFFL) << 8L) | ((get(ref + 2) & 0xFFL) << 16L) | ((get(ref + 3) & 0xFFL) << 24L);
+    }
+
+    /**
+     * reads an unsigned byte at the given position without moving the
+     * current position.
+     * @param pos the position, relative to the start of this RandomAccess.
+     * @return the byte.
+     */
+    public int peekLeByte(long pos) {
+        checkRange(pos, 1);
+        return get(baseOfs + pos) & 0xFF;
+    }
+
+    /**
+     * copies bytes at the given position without moving the current position.
+     * @param pos the position, relative to the start of this RandomAccess.
+     * @param target the array to copy into.
+     * @param targetOfs the offset in the array.
+     * @param len the number of bytes.
+     */
+    public void peekBytes(long pos, byte[] target, int targetOfs, int len) {
+        checkRange(pos, len);
+        source.get(baseOfs + pos, target, targetOfs, len);
+    }
+
+    /**
+     * reads an unsigned 2 byte integer at the given position without
+     * moving the current position.
+     * @param pos the position, relative to the start of this RandomAccess.
+     * @return little endian unsigned short.
+     */
+    public int peekLeShort(long pos) {
+        checkRange(pos, 2);
+        long ref = baseOfs + pos;
+        return (get(ref) & 0xFF) | ((get(ref + 1) & 0xFF) << 8);
     }
 
     public float leFloat() {
@@ -207,10 +313,7 @@ public class RandomAccess {
     }
 
     public String fixedLengthString(int len, Charset charset) {
-        int ref = baseOfs + ofs;
-        String str = new String(data, ref, len, charset);
-        ofs += len;
-        return str;
+        return new String(readBytes(len), charset);
     }
 
     /**
@@ -222,15 +325,13 @@ public class RandomAccess {
     }
 
     public String zeroTerminatedString(Charset charset) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        int value = 0;
-        do {
-            value = leByte();
-            if (value != 0) {
-                out.write(value);
-            }
-        } while (value != 0);
-        return new String(out.toByteArray(), charset);
+        int len = 0;
+        while (peekLeByte(ofs + len) != 0) {
+            len++;
+        }
+        String value = fixedLengthString(len, charset);
+        ofs++;
+        return value;
     }
 
     /**
@@ -243,98 +344,202 @@ public class RandomAccess {
 
     public String pascalString(Charset charset) {
         int len = leByte();
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        for (int t = 0; t < len; t++) {
-            out.write(leByte());
-        }
-        return new String(out.toByteArray(), charset);
+        return fixedLengthString(len, charset);
     }
 
-    public RandomAccess jumpAbs(int ofs) {
+    public RandomAccess jumpAbs(long ofs) {
         this.ofs = ofs;
         return this;
     }
 
-    public void jumpRel(int ofs) {
+    public void jumpRel(long ofs) {
         this.ofs += ofs;
     }
 
-    public int position() {
+    public long position() {
         return this.ofs;
     }
 
-    public int length() {
+    public long length() {
         return this.length;
     }
 
+    /**
+     * @return the source of the bytes.
+     */
+    public ByteSource source() {
+        return source;
+    }
+
     public byte[] data() {
-        if (baseOfs == 0 && data.length == length) {
-            return data;
+        if (source instanceof ArrayByteSource && baseOfs == 0 && source.length() == length) {
+            return ((ArrayByteSource) source).array();
         } else {
-            byte[] tmp = new byte[length];
-            System.arraycopy(data, baseOfs, tmp, 0, length);
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Data exceeds maximum Java Array Size.");
+            }
+            byte[] tmp = new byte[(int) length];
+            source.get(baseOfs, tmp, 0, tmp.length);
             return tmp;
         }
     }
 
     public RandomAccess read(int len) {
         checkSpace(len);
-        int ref = baseOfs + ofs;
+        long ref = baseOfs + ofs;
         ofs += len;
-        return new RandomAccess(data, ref, len);
+        return new RandomAccess(source, ref, len);
     }
 
-    public byte[] readBytes(int len) {
+    /**
+     * creates a view on len bytes at the given position, without moving the
+     * current position.
+     * @param pos the position, relative to the start of this RandomAccess.
+     * @param len the number of bytes.
+     * @return the view.
+     */
+    public RandomAccess view(long pos, int len) {
+        checkRange(pos, len);
+        return new RandomAccess(source, baseOfs + pos, len);
+    }
+
+    /**
+     * creates a RandomAccess on the given prefix followed by the region of
+     * this RandomAccess, without copying the region.
+     * @param prefix the bytes to put in front.
+     * @return the joined RandomAccess.
+     */
+    public RandomAccess prepend(byte[] prefix) {
+        return new RandomAccess(new PrefixedByteSource(prefix, source, baseOfs, length));
+    }
+
+    /**
+     * reads the next len bytes into an existing view instead of allocating
+     * a new one. The view is retargeted onto the same source and its position
+     * and position stack are reset. This allows a single view to be reused
+     * for many short lived slices, such as record headers.
+     * @param len the number of bytes.
+     * @param view the view to reuse, if null a new one is created.
+     * @return the view.
+     */
+    public RandomAccess read(int len, RandomAccess view) {
+        if (view == null) {
+            return read(len);
+        }
         checkSpace(len);
-        byte[] tmp = new byte[len];
-        int ref = baseOfs + ofs;
-        System.arraycopy(data, ref, tmp, 0, len);
+        view.retarget(source, baseOfs + ofs, len);
         ofs += len;
+        return view;
+    }
+
+    /**
+     * creates an independent RandomAccess on the same region, positioned at
+     * the start. Unlike the RandomAccess itself the underlying ByteSources can
+     * be read concurrently, so each thread should use its own duplicate.
+     * @return the duplicate.
+     */
+    public RandomAccess duplicate() {
+        return new RandomAccess(source, baseOfs, length);
+    }
+
+    /**
+     * points this RandomAccess to a different region, discarding its
+     * position and position stack.
+     * @param source the source.
+     * @param baseOfs the start of the region in the source.
+     * @param length the length of the region.
+     * @return this.
+     */
+    public RandomAccess retarget(ByteSource source, long baseOfs, long length) {
+        this.source = source;
+        this.baseOfs = baseOfs;
+        this.length = length;
+        this.ofs = 0;
+        this.stackSize = 0;
+        return this;
+    }
+
+    public byte[] readBytes(int len) {
+        byte[] tmp = new byte[len];
+        readBytes(tmp, 0, len);
         return tmp;
     }
 
+    /**
+     * reads bytes into an existing array.
+     * @param target the array to read into.
+     * @param targetOfs the offset in the array.
+     * @param len the number of bytes to read.
+     */
+    public void readBytes(byte[] target, int targetOfs, int len) {
+        checkSpace(len);
+        source.get(baseOfs + ofs, target, targetOfs, len);
+        ofs += len;
+    }
+
+    /**
+     * writes the bytes to the current position. Used when decrypting.
+     * @param values the bytes.
+     */
+    public void setBytes(byte[] values) {
+        checkSpace(values.length);
+        source.put(baseOfs + ofs, values, 0, values.length);
+        ofs += values.length;
+    }
+
     /**
      * unpacks a run length encoded sequence of bytes.
      * @param cmp the random access to read from.
      * @return a random access of the decompressed bytes.
      */
     public RandomAccess deRle(RandomAccess cmp) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        try {
-            do {
-                int skip = cmp.leByte();
-                if (skip == 0) {
-                    throw new RunLengthEncodingException("Bad RLE Skip (0x00)");
-                }
-                if (skip > 0x7F) {
+        return deRle(cmp, new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, cmp.length() * 2))]);
+    }
+
+    /**
+     * decodes run length encoded data straight into the given buffer, ideally
+     * sized to the exact uncompressed length. Literals are copied in bulk and
+     * runs are filled. If the buffer turns out too small a larger copy is used.
+     * @param cmp the compressed data.
+     * @param target the buffer to decode into.
+     * @return a RandomAccess on the decoded part of the buffer.
+     */
+    public RandomAccess deRle(RandomAccess cmp, byte[] target) {
+        byte[] out = target;
+        int len = 0;
+        do {
+            int skip = cmp.leByte();
+            if (skip == 0) {
+                throw new RunLengthEncodingException("Bad RLE Skip (0x00)");
+            }
+            if (skip > 0x7F) {
+                int msb = cmp.leByte();
+                int lsb = (skip & 0x7F);
+                int shift = 0x80 * (msb & 0x01);
+                skip = ((msb << 7) & 0x00FF00) + lsb + shift;
+            }
+            if (len + skip > out.length) {
+                out = Arrays.copyOf(out, Math.max(len + skip, out.length * 2));
+            }
+            cmp.readBytes(out, len, skip);
+            len += skip;
+            if (!cmp.isOneByteLeft()) {
+                byte toRepeat = out[len - 1];
+                int repeatsMinusOne = cmp.leByte();
+                if (repeatsMinusOne > 0x7F) {
                     int msb = cmp.leByte();
-                    int lsb = (skip & 0x7F);
+                    int lsb = (repeatsMinusOne & 0x7F);
                     int shift = 0x80 * (msb & 0x01);
-                    skip = ((msb << 7) & 0x00FF00) + lsb + shift;
+                    repeatsMinusOne = ((msb << 7) & 0x00FF00) + lsb + shift;
                 }
-                out.write(cmp.readBytes(skip));
-                if (!cmp.isOneByteLeft()) {
-                    cmp.jumpRel(-1);
-                    int toRepeat = cmp.leByte();
-                    int repeatsMinusOne = cmp.leByte();
-                    if (repeatsMinusOne > 0x7F) {
-                        int msb = cmp.leByte();
-                        int lsb = (repeatsMinusOne & 0x7F);
-                        int shift = 0x80 * (msb & 0x01);
-                        repeatsMinusOne = ((msb << 7) & 0x00FF00) + lsb + shift;
-                    }
-                    byte[] repeat = new byte[repeatsMinusOne];
-                    for (int t = 0; t < repeat.length; t++) {
-                        repeat[t] = (byte) toRepeat;
-                    }
-                    out.write(repeat);
+                if (len + repeatsMinusOne > out.length) {
+                    out = Arrays.copyOf(out, Math.max(len + repeatsMinusOne, out.length * 2));
                 }
-            } while (!cmp.isAtEnd());
-            //
-        } catch (IOException ex) {
-            throw new RunLengthEncodingException(ex);
-        }
-        return new RandomAccess(out.toByteArray());
+                Arrays.fill(out, len, len + repeatsMinusOne, toRepeat);
+                len += repeatsMinusOne;
+            }
+        } while (!cmp.isAtEnd());
+        return new RandomAccess(out, 0, len);
     }
 
     public String toHex4(int value) {
@@ -363,11 +568,11 @@ public class RandomAccess {
 
     @Override
     public String toString() {
-        return Integer.toHexString(ofs) + "/" + Integer.toHexString(length());
+        return Long.toHexString(ofs) + "/" + Long.toHexString(length());
     }
 
     public String toStringBase() {
-        return Integer.toHexString(baseOfs + ofs) + "/" + Integer.toHexString(length());
+        return Long.toHexString(baseOfs + ofs) + "/" + Long.toHexString(length());
     }
 
     public String toHex8(int value) {
@@ -378,6 +583,14 @@ public class RandomAccess {
         return tmp;
     }
 
+    public String toHex8(long value) {
+        String tmp = Long.toHexString(value);
+        while (tmp.length() < 8) {
+            tmp = "0" + tmp;
+        }
+        return tmp;
+    }
+
     public int[] leLongArray(int i) {
         int[] results = new int[i];
         for (int t = 0; t < i; t++) {
@@ -387,18 +600,24 @@ public class RandomAccess {
     }
 
     public byte[] remainder() {
-        int ref = baseOfs + ofs;
-        byte[] result = new byte[length - ofs];
-        System.arraycopy(data, ref, result, 0, result.length);
+        long ref = baseOfs + ofs;
+        byte[] result = new byte[(int) (length - ofs)];
+        source.get(ref, result, 0, result.length);
         return result;
     }
 
-    public int toFileOffset(int pageReference) {
-        return (pageReference << 8) + 0x200;
+    /**
+     * converts a page reference into an offset in the file. The page reference
+     * is an unsigned number of 0x100 byte pages, excluding the header.
+     * @param pageReference the page reference.
+     * @return the offset in the file.
+     */
+    public long toFileOffset(int pageReference) {
+        return ((pageReference & 0xFFFFFFFFL) << 8) + 0x200;
     }
 
-    public int[] toFileOffset(int[] pageReferences) {
-        int[] results = new int[pageReferences.length];
+    public long[] toFileOffset(int[] pageReferences) {
+        long[] results = new long[pageReferences.length];
         for (int t = 0; t < results.length; t++) {
             results[t] = toFileOffset(pageReferences[t]);
         }
@@ -415,7 +634,7 @@ public class RandomAccess {
             sb.append(toHex4(t) + " : ");
             for (int y = 0; y < step; y++) {
                 if (t + y < length) {
-                    sb.append(toHex2(data[baseOfs + t + y] & 0x00FF));
+                    sb.append(toHex2(get(baseOfs + t + y) & 0x00FF));
                     sb.append(" ");
                 }
             }
@@ -423,7 +642,7 @@ public class RandomAccess {
                 sb.append(" ");
                 for (int y = 0; y < step; y++) {
                     if (t + y < length) {
-                        int ch = data[baseOfs + t + y] & 0x00FF;
+                        int ch = get(baseOfs + t + y) & 0x00FF;
                         if (ch < 32 || ch > 127) {
                             sb.append(".");
                         } else {
@@ -441,7 +660,7 @@ public class RandomAccess {
         StringBuilder sb = new StringBuilder();
         boolean wasHex = false;
         for (int t = 0; t < length; t++) {
-            int v = data[baseOfs + t] & 0x00FF;
+            int v = get(baseOfs + t) & 0x00FF;
             if ((v < 32) || (v > 127)) {
                 sb.append(" ");
                 sb.append(toHex2(v));
@@ -462,39 +681,19 @@ public class RandomAccess {
     }
 
     public String binaryCodedDecimal(int len, int totalDigits, int digitsAfterDecimalPoint) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : readBytes(len)) {
-            sb.append(toHex2(b & 0xFF));
-        }
-        String sign = sb.substring(0, 1);
-        String number = sb.substring(1);
-        if (digitsAfterDecimalPoint > 0) {
-            int decimalIndex = number.length() - digitsAfterDecimalPoint;
-            number = trimLeadingZeros(number.substring(0, decimalIndex)) + "." + number.substring(decimalIndex);
-        } else {
-            number = trimLeadingZeros(number);
-        }
-        return (!sign.equals("0") ? "-" : "") + number;
+        return binaryCodedDecimal(readBytes(len), 0, len, digitsAfterDecimalPoint);
     }
 
     /**
-     * @param number a number string.
-     * @return the number string without leading zeros.
+     * decodes a binary coded decimal from a byte array.
+     * @param data the bytes.
+     * @param ofs the offset of the number.
+     * @param len the length of the number in bytes.
+     * @param digitsAfterDecimalPoint the number of decimals.
+     * @return the number as string.
      */
-    private String trimLeadingZeros(String number) {
-        int idx = -1;
-        for (int t = 0; t < number.length(); t++) {
-            if (number.charAt(t) == '0') {
-                idx++;
-            } else {
-                break;
-            }
-        }
-        if (idx == number.length() - 1) {
-            return number.substring(idx);
-        } else {
-            return number.substring(idx + 1);
-        }
+    public static String binaryCodedDecimal(byte[] data, int ofs, int len, int digitsAfterDecimalPoint) {
+        return BinaryCodedDecimal.toString(data, ofs, len, digitsAfterDecimalPoint);
     }
 
 }
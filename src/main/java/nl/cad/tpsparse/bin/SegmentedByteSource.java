@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2021 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ByteSource on top of a number of consecutive ByteBuffers. As a single
+ * ByteBuffer cannot address more than 2GB, files larger than that are mapped
+ * as a number of windows. All segments but the last must have the same size,
+ * which must be a power of two.
+ * @author E.Hooijmeijer
+ */
+public class SegmentedByteSource implements ByteSource {
+
+    private final BufferByteSource[] segments;
+    private final int shift;
+    private final long mask;
+    private final long length;
+
+    public SegmentedByteSource(ByteBuffer[] buffers) {
+        int size = buffers[0].limit();
+        if (buffers.length > 1 && Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Segment size must be a power of two (" + size + ")");
+        }
+        this.segments = new BufferByteSource[buffers.length];
+        long total = 0;
+        for (int t = 0; t < buffers.length; t++) {
+            if (t < buffers.length - 1 && buffers[t].limit() != size) {
+                throw new IllegalArgumentException("Segment " + t + " differs in size (" + buffers[t].limit() + " != " + size + ")");
+            }
+            segments[t] = new BufferByteSource(buffers[t]);
+            total += buffers[t].limit();
+        }
+        this.shift = buffers.length == 1 ? 31 : Integer.numberOfTrailingZeros(size);
+        this.mask = (1L << shift) - 1;
+        this.length = total;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public byte get(long pos) {
+        return segments[(int) (pos >>> shift)].get(pos & mask);
+    }
+
+    @Override
+    public void get(long pos, byte[] target, int targetOfs, int len) {
+        int done = 0;
+        while (done < len) {
+            BufferByteSource segment = segments[(int) ((pos + done) >>> shift)];
+            long ofs = (pos + done) & mask;
+            int chunk = (int) Math.min(len - done, segment.length() - ofs);
+            segment.get(ofs, target, targetOfs + done, chunk);
+            done += chunk;
+        }
+    }
+
+    @Override
+    public void put(long pos, byte value) {
+        segments[(int) (pos >>> shift)].put(pos & mask, value);
+    }
+
+    @Override
+    public void put(long pos, byte[] values, int valuesOfs, int len) {
+        int done = 0;
+        while (done < len) {
+            BufferByteSource segment = segments[(int) ((pos + done) >>> shift)];
+            long ofs = (pos + done) & mask;
+            int chunk = (int) Math.min(len - done, segment.length() - ofs);
+            segment.put(ofs, values, valuesOfs + done, chunk);
+            done += chunk;
+        }
+    }
+
+}
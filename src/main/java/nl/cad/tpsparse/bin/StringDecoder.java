@@ -0,0 +1,175 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+import java.nio.charset.Charset;
+
+/**
+ * Decodes the strings in a TPS file. Single byte encodings (like ISO-8859-1,
+ * CP850 and CP1252) are decoded with a table of 256 characters instead of
+ * going through the Charset for every string.
+ *
+ * Optionally trailing spaces are removed from fixed length strings (before
+ * decoding) and the Strings of a column are shared through a
+ * StringDictionary.
+ *
+ * @author E.Hooijmeijer
+ */
+public class StringDecoder {
+
+    private final Charset charset;
+    private final char[] table;
+    private final int space;
+    private final boolean trim;
+    private final int dictionarySize;
+
+    public StringDecoder(Charset charset) {
+        this(charset, false, 0);
+    }
+
+    /**
+     * @param charset the encoding of the strings.
+     * @param trim true to remove trailing spaces from fixed length strings.
+     * @param dictionarySize the maximum number of distinct values shared per column, 0 for none.
+     */
+    public StringDecoder(Charset charset, boolean trim, int dictionarySize) {
+        this.charset = charset;
+        this.table = decodeTable(charset);
+        byte[] encodedSpace = " ".getBytes(charset);
+        this.space = (encodedSpace.length == 1 ? encodedSpace[0] : -1);
+        this.trim = trim;
+        this.dictionarySize = dictionarySize;
+    }
+
+    /**
+     * @param charset the charset.
+     * @return the character for each byte value, or null if the charset
+     * does not encode every character in a single byte.
+     */
+    private static char[] decodeTable(Charset charset) {
+        try {
+            if (charset.newEncoder().maxBytesPerChar() > 1.0f) {
+                return null;
+            }
+        } catch (UnsupportedOperationException ex) {
+            // decode only charset.
+            return null;
+        }
+        byte[] all = new byte[256];
+        for (int t = 0; t < all.length; t++) {
+            all[t] = (byte) t;
+        }
+        String decoded = new String(all, charset);
+        return (decoded.length() == all.length ? decoded.toCharArray() : null);
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return true if strings are decoded with a table.
+     */
+    public boolean isSingleByte() {
+        return table != null;
+    }
+
+    public boolean isTrim() {
+        return trim;
+    }
+
+    public int getDictionarySize() {
+        return dictionarySize;
+    }
+
+    /**
+     * @return a new dictionary for a column, or null if strings are not shared.
+     */
+    public StringDictionary newDictionary() {
+        return (dictionarySize > 0 ? new StringDictionary(dictionarySize) : null);
+    }
+
+    /**
+     * @param data the bytes.
+     * @param ofs the offset of the string.
+     * @param len the length of the string in bytes.
+     * @return the string.
+     */
+    public String decode(byte[] data, int ofs, int len) {
+        if (table == null) {
+            return new String(data, ofs, len, charset);
+        }
+        char[] chars = new char[len];
+        for (int t = 0; t < len; t++) {
+            chars[t] = table[data[ofs + t] & 0xFF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * decodes a string, reusing the String from the dictionary if the same
+     * bytes have been decoded before.
+     * @param data the bytes.
+     * @param ofs the offset of the string.
+     * @param len the length of the string in bytes.
+     * @param dictionary the dictionary of the column, may be null.
+     * @return the string.
+     */
+    public String decode(byte[] data, int ofs, int len, StringDictionary dictionary) {
+        if (dictionary == null) {
+            return decode(data, ofs, len);
+        }
+        String value = dictionary.get(data, ofs, len);
+        if (value == null) {
+            value = decode(data, ofs, len);
+            dictionary.put(data, ofs, len, value);
+        }
+        return value;
+    }
+
+    /**
+     * decodes a fixed length string, without its trailing spaces if trimming
+     * is enabled.
+     * @param data the bytes.
+     * @param ofs the offset of the string.
+     * @param len the length of the field in bytes.
+     * @param dictionary the dictionary of the column, may be null.
+     * @return the string.
+     */
+    public String decodeFixed(byte[] data, int ofs, int len, StringDictionary dictionary) {
+        return decode(data, ofs, fixedLength(data, ofs, len), dictionary);
+    }
+
+    /**
+     * @param data the bytes.
+     * @param ofs the offset of the string.
+     * @param len the length of the field in bytes.
+     * @return the length of the fixed length string, without its trailing spaces if trimming is enabled.
+     */
+    public int fixedLength(byte[] data, int ofs, int len) {
+        if (trim && space >= 0) {
+            while (len > 0 && data[ofs + len - 1] == space) {
+                len--;
+            }
+        }
+        return len;
+    }
+
+    @Override
+    public String toString() {
+        return "StringDecoder(" + charset + "," + (table != null) + "," + trim + "," + dictionarySize + ")";
+    }
+}
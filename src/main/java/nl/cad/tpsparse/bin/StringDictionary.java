@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+/**
+ * Shares the String instances of a column with few distinct values, like
+ * status and code columns. Values are looked up by their encoded bytes, so a
+ * value that is already known is not decoded again. Once the dictionary holds
+ * its maximum number of values no new values are added.
+ *
+ * @author E.Hooijmeijer
+ */
+public class StringDictionary {
+
+    /**
+     * longer values are unlikely to repeat and are never added.
+     */
+    public static final int MAX_VALUE_LENGTH = 64;
+
+    private final int maxSize;
+    private final byte[][] keys;
+    private final String[] values;
+    private int size;
+
+    /**
+     * @param maxSize the maximum number of distinct values.
+     */
+    public StringDictionary(int maxSize) {
+        this.maxSize = maxSize;
+        int capacity = Integer.highestOneBit(Math.max(maxSize, 4) * 2 - 1) << 1;
+        this.keys = new byte[capacity][];
+        this.values = new String[capacity];
+    }
+
+    private static int hash(byte[] data, int ofs, int len) {
+        int h = len;
+        for (int t = 0; t < len; t++) {
+            h = h * 31 + data[ofs + t];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equal(byte[] key, byte[] data, int ofs, int len) {
+        if (key.length != len) {
+            return false;
+        }
+        for (int t = 0; t < len; t++) {
+            if (key[t] != data[ofs + t]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param data the bytes.
+     * @param ofs the offset of the value.
+     * @param len the length of the value.
+     * @return the shared String for the bytes or null if it is not known.
+     */
+    public synchronized String get(byte[] data, int ofs, int len) {
+        if (len > MAX_VALUE_LENGTH) {
+            return null;
+        }
+        int mask = keys.length - 1;
+        for (int idx = hash(data, ofs, len) & mask; keys[idx] != null; idx = (idx + 1) & mask) {
+            if (equal(keys[idx], data, ofs, len)) {
+                return values[idx];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * adds a value, unless it is too long or the dictionary is full.
+     * @param data the bytes.
+     * @param ofs the offset of the value.
+     * @param len the length of the value.
+     * @param value the decoded value.
+     */
+    public synchronized void put(byte[] data, int ofs, int len, String value) {
+        if (len > MAX_VALUE_LENGTH || size >= maxSize) {
+            return;
+        }
+        int mask = keys.length - 1;
+        int idx = hash(data, ofs, len) & mask;
+        while (keys[idx] != null) {
+            if (equal(keys[idx], data, ofs, len)) {
+                return;
+            }
+            idx = (idx + 1) & mask;
+        }
+        byte[] key = new byte[len];
+        System.arraycopy(data, ofs, key, 0, len);
+        keys[idx] = key;
+        values[idx] = value;
+        size++;
+    }
+
+    /**
+     * @return the number of values.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size() >= maxSize;
+    }
+}
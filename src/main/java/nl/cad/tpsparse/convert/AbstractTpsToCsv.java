@@ -18,16 +18,20 @@ package nl.cad.tpsparse.convert;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import nl.cad.tpsparse.csv.CsvWriter;
+import nl.cad.tpsparse.tps.MemoIndex;
+import nl.cad.tpsparse.tps.MemoIndexCollector;
+import nl.cad.tpsparse.tps.ScanPlan;
 import nl.cad.tpsparse.tps.TpsFile;
 import nl.cad.tpsparse.tps.record.DataRecord;
 import nl.cad.tpsparse.tps.record.FieldDefinitionRecord;
 import nl.cad.tpsparse.tps.record.MemoDefinitionRecord;
 import nl.cad.tpsparse.tps.record.MemoRecord;
+import nl.cad.tpsparse.tps.record.Projection;
+import nl.cad.tpsparse.tps.record.RowPredicate;
 import nl.cad.tpsparse.tps.record.TableDefinitionRecord;
 import nl.cad.tpsparse.util.Utils;
 
@@ -42,6 +46,8 @@ public abstract class AbstractTpsToCsv {
     private File sourceFile;
     private File targetFile;
     private TpsFile tpsFile;
+    private Projection projection;
+    private RowPredicate predicate;
 
     private boolean ignoreErrors;
     private boolean verbose;
@@ -58,7 +64,7 @@ public abstract class AbstractTpsToCsv {
         this.tpsFile = tps;
         this.tableId = table.getKey();
         this.table = table.getValue();
-
+        this.projection = Projection.all(this.table).withoutGroups(this.table);
     }
 
     public abstract void run();
@@ -95,9 +101,35 @@ public abstract class AbstractTpsToCsv {
         return verbose;
     }
 
+    /**
+     * limits the conversion to the given fields and memos, in the given order.
+     * Group fields are never written, so they are not decoded either.
+     * @param projection the projection.
+     */
+    public void setProjection(Projection projection) {
+        this.projection = projection.withoutGroups(table);
+    }
+
+    public Projection getProjection() {
+        return projection;
+    }
+
+    /**
+     * limits the conversion to the rows matching the predicate.
+     * @param predicate the predicate, null for all rows.
+     */
+    public void setPredicate(RowPredicate predicate) {
+        this.predicate = predicate;
+    }
+
+    public RowPredicate getPredicate() {
+        return predicate;
+    }
+
     protected void buildCsvHeaders() {
         csv.addColumn("Rec No");
-        for (FieldDefinitionRecord field : table.getFields()) {
+        for (int fieldIdx : projection.getFields()) {
+            FieldDefinitionRecord field = table.getFields().get(fieldIdx);
             String csvName = toCsvName(getFieldPrefix(table.getFields(), field) + field.getFieldNameNoTable());
             if (field.isArray()) {
                 for (int idx = 0; idx < field.getNrOfElements(); idx++) {
@@ -107,8 +139,8 @@ public abstract class AbstractTpsToCsv {
                 csv.addColumn(csvName, field.isGroup());
             }
         }
-        for (MemoDefinitionRecord memo : table.getMemos()) {
-            csv.addColumn(toCsvName(memo.getName()));
+        for (int memoIdx : projection.getMemos()) {
+            csv.addColumn(toCsvName(table.getMemos().get(memoIdx).getName()));
         }
         csv.newRow();
     }
@@ -156,48 +188,69 @@ public abstract class AbstractTpsToCsv {
         return sb.toString();
     }
 
-    protected List<Map<Integer, MemoRecord>> prefetchMemos() {
-        if (verbose) {
-            System.out.println("Prefetching Memo's");
+    /**
+     * registers the indexing of the projected memo fields of the table on the
+     * scan plan, if there are any. The memos themselves are only read when a
+     * record that has them is written.
+     * @param plan the scan plan.
+     * @return the collector, holding an index per projected memo field after the scan.
+     */
+    protected MemoIndexCollector addMemoIndexes(ScanPlan plan) {
+        MemoIndexCollector collector = new MemoIndexCollector(tpsFile, tableId, projection.getMemos(), ignoreErrors);
+        if (!collector.isEmpty()) {
+            plan.add(collector);
         }
-        List<Map<Integer, MemoRecord>> memos = new ArrayList<>();
-        for (int t = 0; t < table.getMemos().size(); t++) {
-            memos.add(tpsFile.getMemoRecords(tableId, t, ignoreErrors));
+        return collector;
+    }
+
+    /**
+     * indexes the projected memo fields of the table in a separate pass.
+     * @return an index per projected memo field.
+     */
+    protected List<MemoIndex> prefetchMemos() {
+        if (verbose) {
+            System.out.println("Indexing Memo's");
         }
+        ScanPlan plan = new ScanPlan();
+        MemoIndexCollector memos = addMemoIndexes(plan);
+        tpsFile.scan(plan, ignoreErrors);
         if (verbose) {
             System.out.println("Memory: " + Utils.reportMemoryUsage());
         }
-        return memos;
+        return memos.getResult();
     }
 
     /**
      * handles a single record.
      * @param table the table.
      * @param csv the csv to write to.
-     * @param memos the preloaded memo's
+     * @param memos the memo indexes.
      * @param rec the data record to read from.
      */
-    protected void onRecord(List<Map<Integer, MemoRecord>> memos, DataRecord rec) {
+    protected void onRecord(List<MemoIndex> memos, DataRecord rec) {
         int recordNumber = rec.getRecordNumber();
         csv.addCell(recordNumber);
         List<FieldDefinitionRecord> fields = table.getFields();
-        List<Object> values = rec.getValues();
-        for (int t = 0; t < values.size(); t++) {
-            FieldDefinitionRecord field = fields.get(t);
-            Object value = values.get(t);
+        for (int t = 0; t < projection.getFields().length; t++) {
+            FieldDefinitionRecord field = fields.get(projection.getFields()[t]);
             if (field.isArray()) {
-                Object[] arr = (Object[]) value;
+                Object[] arr = (Object[]) rec.getValue(t);
                 for (int idx = 0; idx < field.getNrOfElements(); idx++) {
                     csv.addCell(arr[idx]);
                 }
+            } else if (field.getFieldType() == 4) {
+                // dates and times are written straight from the record bytes.
+                csv.addDate(rec.getDate(t));
+            } else if (field.getFieldType() == 5) {
+                csv.addTime(rec.getMinuteOfDay(t));
             } else {
-                csv.addCell(value);
+                csv.addCell(rec.getValue(t));
             }
         }
-        for (int t = 0; t < table.getMemos().size(); t++) {
+        for (int m = 0; m < projection.getMemos().length; m++) {
+            int t = projection.getMemos()[m];
             MemoDefinitionRecord def = table.getMemos().get(t);
-            Map<Integer, MemoRecord> list = memos.get(t);
-            MemoRecord memo = list.get(recordNumber);
+            MemoRecord memo = memos.get(m).get(recordNumber);
             if (memo != null) {
                 if (def.isMemo()) {
                     csv.addCell(memo.getDataAsMemo());
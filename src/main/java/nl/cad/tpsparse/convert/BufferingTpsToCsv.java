@@ -21,9 +21,12 @@ import java.util.Map;
 import java.util.TreeMap;
 
 import nl.cad.tpsparse.csv.CsvWriter;
+import nl.cad.tpsparse.tps.DataRecordCollector;
+import nl.cad.tpsparse.tps.MemoIndex;
+import nl.cad.tpsparse.tps.MemoIndexCollector;
+import nl.cad.tpsparse.tps.ScanPlan;
 import nl.cad.tpsparse.tps.TpsFile;
 import nl.cad.tpsparse.tps.record.DataRecord;
-import nl.cad.tpsparse.tps.record.MemoRecord;
 import nl.cad.tpsparse.tps.record.TableDefinitionRecord;
 import nl.cad.tpsparse.util.Utils;
 
@@ -44,11 +47,19 @@ public class BufferingTpsToCsv extends AbstractTpsToCsv {
         //
         buildCsvHeaders();
         //
-        processRecords(prefetchMemos(), buildRecordsById());
+        if (isVerbose()) {
+            System.out.println("Reading memo's and records");
+        }
+        ScanPlan plan = new ScanPlan();
+        MemoIndexCollector memos = addMemoIndexes(plan);
+        DataRecordCollector records = plan.add(new DataRecordCollector(getTableId(), getTable(), getProjection(), getPredicate()));
+        getTpsFile().scan(plan, isIgnoreErrors());
+        //
+        processRecords(memos.getResult(), buildRecordsById(records.getResult()));
         //
     }
 
-    protected void processRecords(List<Map<Integer, MemoRecord>> memos, Map<Integer, DataRecord> recordsById) {
+    protected void processRecords(List<MemoIndex> memos, Map<Integer, DataRecord> recordsById) {
         if (isVerbose()) {
             System.out.println("Converting " + recordsById.size() + " records to CSV");
             System.out.println("Memory: " + Utils.reportMemoryUsage());
@@ -59,14 +70,14 @@ public class BufferingTpsToCsv extends AbstractTpsToCsv {
         }
     }
 
-    protected Map<Integer, DataRecord> buildRecordsById() {
+    protected Map<Integer, DataRecord> buildRecordsById(List<DataRecord> records) {
         if (isVerbose()) {
             System.out.println("Sorting records and checking for duplicates.");
             System.out.println("Memory: " + Utils.reportMemoryUsage());
         }
         Map<Integer, DataRecord> recordsById = new TreeMap<>();
         //
-        for (DataRecord rec : getTpsFile().getDataRecords(getTableId(), getTable(), isIgnoreErrors())) {
+        for (DataRecord rec : records) {
             int recordNumber = rec.getRecordNumber();
             if (!recordsById.containsKey(recordNumber)) {
                 recordsById.put(recordNumber, rec);
@@ -20,18 +20,21 @@ import java.util.List;
 import java.util.Map;
 
 import nl.cad.tpsparse.csv.CsvWriter;
+import nl.cad.tpsparse.tps.MemoIndex;
+import nl.cad.tpsparse.tps.RecordFilter;
 import nl.cad.tpsparse.tps.TpsFile;
 import nl.cad.tpsparse.tps.TpsFile.Visitor;
 import nl.cad.tpsparse.tps.TpsRecord;
 import nl.cad.tpsparse.tps.header.DataHeader;
 import nl.cad.tpsparse.tps.record.DataRecord;
-import nl.cad.tpsparse.tps.record.MemoRecord;
 import nl.cad.tpsparse.tps.record.TableDefinitionRecord;
 import nl.cad.tpsparse.util.Utils;
 
 /**
  * Streaming Tps to Csv converter that doesn't consume as much memory. It
- * doesn't sort or check for duplicates though. It still buffers memo's.
+ * doesn't sort or check for duplicates though. As rows are written as soon as
+ * they are read, the memo's are indexed in a pass before, which is skipped
+ * when no memo's are exported.
  * @author E.Hooijmeijer
  */
 public class StreamingTpsToCsv extends AbstractTpsToCsv {
@@ -49,7 +52,7 @@ public class StreamingTpsToCsv extends AbstractTpsToCsv {
         //
     }
 
-    protected void processRecords(final List<Map<Integer, MemoRecord>> memos) {
+    protected void processRecords(final List<MemoIndex> memos) {
         if (isVerbose()) {
             System.out.println("Processing records");
             System.out.println("Memory: " + Utils.reportMemoryUsage());
@@ -58,13 +61,13 @@ public class StreamingTpsToCsv extends AbstractTpsToCsv {
             @Override
             public void onTpsRecord(TpsRecord record) {
                 if (record.getHeader() instanceof DataHeader) {
-                    if (record.getHeader().getTableNumber() == getTableId()) {
-                        DataRecord dataRecord = new DataRecord(record, getTable());
+                    if (record.getHeader().getTableNumber() == getTableId() && (getPredicate() == null || getPredicate().matches(record.getData()))) {
+                        DataRecord dataRecord = new DataRecord(record, getTable(), getProjection());
                         onRecord(memos, dataRecord);
                     }
                 }
             }
-        }, isIgnoreErrors());
+        }, new RecordFilter(RecordFilter.DATA, getTableId()), isIgnoreErrors());
     }
 
 }
@@ -18,6 +18,8 @@ package nl.cad.tpsparse.csv;
 import java.util.ArrayList;
 import java.util.List;
 
+import nl.cad.tpsparse.bin.PackedDateTime;
+
 import org.joda.time.LocalDate;
 import org.joda.time.LocalTime;
 
@@ -28,6 +30,7 @@ import org.joda.time.LocalTime;
 public abstract class CsvWriter {
 
     private StringBuilder line = new StringBuilder();
+    private StringBuilder cell = new StringBuilder();
 
     private char sep;
     private char quot;
@@ -73,6 +76,28 @@ public abstract class CsvWriter {
         addValue(value);
     }
 
+    /**
+     * adds a DATE cell without creating a date object.
+     * @param date the packed date (see PackedDateTime), 0 for no date.
+     */
+    public void addDate(int date) {
+        if (PackedDateTime.isNull(date)) {
+            addValue(null);
+        } else {
+            cell.setLength(0);
+            addFormatted(PackedDateTime.appendDate(cell, date));
+        }
+    }
+
+    /**
+     * adds a TIME cell without creating a time object.
+     * @param minuteOfDay the minute of the day.
+     */
+    public void addTime(int minuteOfDay) {
+        cell.setLength(0);
+        addFormatted(PackedDateTime.appendTime(cell, minuteOfDay));
+    }
+
     /**
      * begins a new row. checks if the row has the expected amount of columns.
      */
@@ -94,27 +119,50 @@ public abstract class CsvWriter {
      */
     private void addValue(Object value) {
         if (!ignoreColumn.get(currentColumn)) {
-            String str = toString(value);
-            if (currentColumn != 0) {
-                line.append(sep);
-            }
-            if (str != null) {
-                if ((str.indexOf(sep) >= 0) || (str.indexOf('\n') >= 0) || value instanceof String) {
-                    line.append(quot);
-                    for (int t = 0; t < str.length(); t++) {
-                        line.append(str.charAt(t));
-                        // escape quotes by doubling them.
-                        if (str.charAt(t) == quot) {
-                            line.append(quot);
-                        }
+            appendValue(toString(value), value instanceof String);
+        }
+        currentColumn++;
+    }
+
+    /**
+     * adds a value that has already been formatted, like a date or time.
+     * @param str the formatted value.
+     */
+    private void addFormatted(CharSequence str) {
+        if (!ignoreColumn.get(currentColumn)) {
+            appendValue(str, false);
+        }
+        currentColumn++;
+    }
+
+    private void appendValue(CharSequence str, boolean quoted) {
+        if (currentColumn != 0) {
+            line.append(sep);
+        }
+        if (str != null) {
+            if (quoted || contains(str, sep) || contains(str, '\n')) {
+                line.append(quot);
+                for (int t = 0; t < str.length(); t++) {
+                    line.append(str.charAt(t));
+                    // escape quotes by doubling them.
+                    if (str.charAt(t) == quot) {
+                        line.append(quot);
                     }
-                    line.append(quot);
-                } else {
-                    line.append(str);
                 }
+                line.append(quot);
+            } else {
+                line.append(str);
             }
         }
-        currentColumn++;
+    }
+
+    private static boolean contains(CharSequence str, char c) {
+        for (int t = 0; t < str.length(); t++) {
+            if (str.charAt(t) == c) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -122,13 +170,20 @@ public abstract class CsvWriter {
      * @param value the object value.
      * @return the value as a string.
      */
-    private String toString(Object value) {
+    private CharSequence toString(Object value) {
         if (value == null) {
             return null;
         } else if (value instanceof LocalDate) {
-            return ((LocalDate) value).toString("yyyy-MM-dd");
+            LocalDate date = (LocalDate) value;
+            if (date.getYear() < 0 || date.getYear() > 0xFFFF) {
+                return date.toString("yyyy-MM-dd");
+            }
+            cell.setLength(0);
+            return PackedDateTime.appendDate(cell, (date.getYear() << 16) | (date.getMonthOfYear() << 8) | date.getDayOfMonth());
         } else if (value instanceof LocalTime) {
-            return ((LocalTime) value).toString("HH:mm");
+            LocalTime time = (LocalTime) value;
+            cell.setLength(0);
+            return PackedDateTime.appendTime(cell, time.getHourOfDay() * 60 + time.getMinuteOfHour());
         } else {
             return String.valueOf(value);
         }
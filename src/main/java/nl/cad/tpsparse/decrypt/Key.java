@@ -191,6 +191,18 @@ public class Key {
      * @return the decoded bytes (same array).
      */
     public byte[] decrypt(byte[] bytes, int ofs, int len) {
+        decrypt(new RandomAccess(bytes), ofs, len);
+        return bytes;
+    }
+
+    /**
+     * decodes multiple blocks of 64 bytes in place, the RandomAccess may be
+     * backed by a (private) memory mapping of the file.
+     * @param rx the data.
+     * @param ofs the offset to start decoding.
+     * @param len the number of bytes to decode.
+     */
+    public void decrypt(RandomAccess rx, long ofs, long len) {
         if ((ofs % 64) != 0) {
             throw new IllegalArgumentException("ofs must be dividable by 64.");
         }
@@ -198,12 +210,13 @@ public class Key {
             throw new IllegalArgumentException("len must be dividable by 64.");
         }
         byte[] buffer = new byte[64];
-        for (int t = 0; t < len / 64; t++) {
-            System.arraycopy(bytes, ofs + t * 64, buffer, 0, 64);
+        for (long t = 0; t < len / 64; t++) {
+            rx.jumpAbs(ofs + t * 64);
+            rx.readBytes(buffer, 0, 64);
             decrypt64(buffer);
-            System.arraycopy(buffer, 0, bytes, ofs + t * 64, 64);
+            rx.jumpAbs(ofs + t * 64);
+            rx.setBytes(buffer);
         }
-        return bytes;
     }
 
     @Override
@@ -47,8 +47,15 @@ public class Block implements Comparable<Block> {
         this(offset, block.values, block.encrypted);
     }
 
+    /**
+     * reads a block at the current position. Key recovery keeps offsets as
+     * ints, so blocks beyond 2GB are rejected instead of truncated.
+     * @param rx the file.
+     * @param encrypted if the block is encrypted.
+     * @throws ArithmeticException if the position does not fit an int.
+     */
     public Block(RandomAccess rx, boolean encrypted) {
-        this(rx.position(), rx.leLongArray(16), encrypted);
+        this(Math.toIntExact(rx.position()), rx.leLongArray(16), encrypted);
     }
 
     public int getOffset() {
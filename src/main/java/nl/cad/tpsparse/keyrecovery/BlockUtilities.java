@@ -32,11 +32,12 @@ import nl.cad.tpsparse.util.Utils;
 public class BlockUtilities {
 
     /**
-     * loads a file into 0x40 byte blocks.
+     * loads a file into 0x40 byte blocks. The blocks copy their values, so the
+     * file is mapped instead of being read onto the heap first.
      */
     public List<Block> loadFile(File in, boolean encrypted) throws IOException {
         List<Block> results = new ArrayList<>();
-        RandomAccess rx = new RandomAccess(Utils.readFully(in));
+        RandomAccess rx = new RandomAccess(Utils.map(in, false));
         while (!rx.isAtEnd()) {
             results.add(new Block(rx, encrypted));
         }
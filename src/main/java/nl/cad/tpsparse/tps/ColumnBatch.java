@@ -0,0 +1,268 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.util.Arrays;
+import java.util.List;
+
+import nl.cad.tpsparse.bin.StringDecoder;
+import nl.cad.tpsparse.tps.record.FieldDefinitionRecord;
+import nl.cad.tpsparse.tps.record.TableDefinitionRecord;
+
+/**
+ * A batch of rows decoded into one primitive array per field. The batch is
+ * filled from a RowCursor and can be reused for the next rows, so a whole
+ * table can be processed column by column with a fixed amount of memory.
+ *
+ * <ul>
+ * <li>BYTE, SHORT, LONG fields go into an int[], TIME fields as milliseconds of the day.</li>
+ * <li>ULONG fields go into a long[].</li>
+ * <li>FLOAT, DOUBLE and BCD fields go into a double[].</li>
+ * <li>DATE fields go into an int[] of days since 1970-01-01, with zero dates marked as null.</li>
+ * <li>STRING fields are appended to a byte[] with an int[] of offsets, row r
+ * being the bytes from offset r to offset r+1.</li>
+ * </ul>
+ *
+ * Array and group fields are not decoded into columns.
+ *
+ * @author E.Hooijmeijer
+ */
+public class ColumnBatch {
+
+    public static final int NONE = 0;
+    public static final int INT = 1;
+    public static final int LONG = 2;
+    public static final int DOUBLE = 3;
+    public static final int DATE = 4;
+    public static final int STRING = 5;
+
+    private final int capacity;
+    private final StringDecoder strings;
+    private final int[] kinds;
+    private final int[] types;
+    private final int[][] ints;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final long[][] nulls;
+    private final int[][] offsets;
+    private final byte[][] bytes;
+    private final int[] recordNumbers;
+    private int size;
+
+    /**
+     * @param def the table definition.
+     * @param capacity the maximum number of rows in the batch.
+     */
+    public ColumnBatch(TableDefinitionRecord def, int capacity) {
+        List<FieldDefinitionRecord> fields = def.getFields();
+        int count = fields.size();
+        this.capacity = capacity;
+        this.strings = def.getStringDecoder();
+        this.kinds = new int[count];
+        this.types = new int[count];
+        this.ints = new int[count][];
+        this.longs = new long[count][];
+        this.doubles = new double[count][];
+        this.nulls = new long[count][];
+        this.offsets = new int[count][];
+        this.bytes = new byte[count][];
+        this.recordNumbers = new int[capacity];
+        for (int t = 0; t < count; t++) {
+            FieldDefinitionRecord field = fields.get(t);
+            types[t] = field.getFieldType();
+            kinds[t] = (field.isArray() ? NONE : kindOf(types[t]));
+            switch (kinds[t]) {
+            case INT:
+                ints[t] = new int[capacity];
+                break;
+            case DATE:
+                ints[t] = new int[capacity];
+                nulls[t] = new long[(capacity + 63) / 64];
+                break;
+            case LONG:
+                longs[t] = new long[capacity];
+                break;
+            case DOUBLE:
+                doubles[t] = new double[capacity];
+                break;
+            case STRING:
+                offsets[t] = new int[capacity + 1];
+                bytes[t] = new byte[Math.max(16, Math.min(capacity * field.getLength(), 0x10000))];
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    private static int kindOf(int type) {
+        switch (type) {
+        case 1:
+        case 2:
+        case 3:
+        case 5:
+        case 6:
+            return INT;
+        case 4:
+            return DATE;
+        case 7:
+            return LONG;
+        case 8:
+        case 9:
+        case 0x0A:
+            return DOUBLE;
+        case 0x12:
+        case 0x13:
+        case 0x14:
+            return STRING;
+        default:
+            return NONE;
+        }
+    }
+
+    /**
+     * replaces the contents of the batch with the next rows of the cursor.
+     * @param cursor the cursor, which must be for the same table definition.
+     * @return the number of rows in the batch, 0 when the cursor is exhausted.
+     */
+    public int fill(RowCursor cursor) {
+        size = 0;
+        for (long[] bitmap : nulls) {
+            if (bitmap != null) {
+                Arrays.fill(bitmap, 0L);
+            }
+        }
+        while (size < capacity && cursor.next()) {
+            recordNumbers[size] = cursor.getRecordNumber();
+            for (int t = 0; t < kinds.length; t++) {
+                switch (kinds[t]) {
+                case INT:
+                    ints[t][size] = (types[t] == 5 ? cursor.getMinuteOfDay(t) * 60000 : cursor.getInt(t));
+                    break;
+                case DATE:
+                    if (cursor.isNull(t)) {
+                        nulls[t][size >> 6] |= 1L << size;
+                        ints[t][size] = 0;
+                    } else {
+                        ints[t][size] = cursor.getEpochDay(t);
+                    }
+                    break;
+                case LONG:
+                    longs[t][size] = cursor.getLong(t);
+                    break;
+                case DOUBLE:
+                    doubles[t][size] = cursor.getDouble(t);
+                    break;
+                case STRING:
+                    int ofs = offsets[t][size];
+                    if (bytes[t].length < ofs + cursor.getRecordLength()) {
+                        bytes[t] = Arrays.copyOf(bytes[t], Math.max(ofs + cursor.getRecordLength(), bytes[t].length * 2));
+                    }
+                    offsets[t][size + 1] = ofs + cursor.getBytes(t, bytes[t], ofs);
+                    break;
+                default:
+                    break;
+                }
+            }
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of rows in the batch.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param field the field index.
+     * @return the kind of column (INT, LONG, DOUBLE, DATE, STRING or NONE).
+     */
+    public int getKind(int field) {
+        return kinds[field];
+    }
+
+    public int[] getRecordNumbers() {
+        return recordNumbers;
+    }
+
+    /**
+     * @param field the field index.
+     * @return the values of an INT column, or the epoch days of a DATE column.
+     */
+    public int[] getInts(int field) {
+        return check(ints[field], field);
+    }
+
+    public long[] getLongs(int field) {
+        return check(longs[field], field);
+    }
+
+    public double[] getDoubles(int field) {
+        return check(doubles[field], field);
+    }
+
+    /**
+     * @param field the field index.
+     * @return a bitmap with a bit set for each row where the DATE column is null.
+     */
+    public long[] getNulls(int field) {
+        return check(nulls[field], field);
+    }
+
+    public boolean isNull(int field, int row) {
+        return nulls[field] != null && (nulls[field][row >> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * @param field the field index.
+     * @return the offsets of the strings in a STRING column, size + 1 long.
+     */
+    public int[] getOffsets(int field) {
+        return check(offsets[field], field);
+    }
+
+    /**
+     * @param field the field index.
+     * @return the bytes of all strings in a STRING column.
+     */
+    public byte[] getBytes(int field) {
+        return check(bytes[field], field);
+    }
+
+    /**
+     * @param field the field index.
+     * @param row the row in the batch.
+     * @return the string in a STRING column.
+     */
+    public String getString(int field, int row) {
+        int[] ofs = check(offsets[field], field);
+        return strings.decode(bytes[field], ofs[row], ofs[row + 1] - ofs[row]);
+    }
+
+    private <T> T check(T column, int field) {
+        if (column == null) {
+            throw new IllegalArgumentException("Field " + field + " has no column of the requested kind (" + kinds[field] + ")");
+        }
+        return column;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.cad.tpsparse.tps.header.DataHeader;
+import nl.cad.tpsparse.tps.record.DataRecord;
+import nl.cad.tpsparse.tps.record.Projection;
+import nl.cad.tpsparse.tps.record.RowPredicate;
+import nl.cad.tpsparse.tps.record.TableDefinitionRecord;
+
+/**
+ * Collects the data records of a table.
+ * @author E.Hooijmeijer
+ */
+public class DataRecordCollector extends RecordCollector<List<DataRecord>> {
+
+    private final int table;
+    private final TableDefinitionRecord def;
+    private final Projection projection;
+    private final RowPredicate predicate;
+    private final List<DataRecord> results = new ArrayList<>();
+
+    /**
+     * @param table the table number.
+     * @param def the table definition.
+     */
+    public DataRecordCollector(int table, TableDefinitionRecord def) {
+        this(table, def, null);
+    }
+
+    /**
+     * @param table the table number.
+     * @param def the table definition.
+     * @param projection the fields to decode, null for all fields.
+     */
+    public DataRecordCollector(int table, TableDefinitionRecord def, Projection projection) {
+        this(table, def, projection, null);
+    }
+
+    /**
+     * @param table the table number.
+     * @param def the table definition.
+     * @param projection the fields to decode, null for all fields.
+     * @param predicate the rows to collect, checked before decoding, null for all rows.
+     */
+    public DataRecordCollector(int table, TableDefinitionRecord def, Projection projection, RowPredicate predicate) {
+        this.table = table;
+        this.def = def;
+        this.projection = projection;
+        this.predicate = predicate;
+    }
+
+    @Override
+    public RecordFilter getFilter() {
+        return new RecordFilter(RecordFilter.DATA, table);
+    }
+
+    @Override
+    public void onTpsRecord(TpsRecord record) {
+        if (record.getHeader() instanceof DataHeader) {
+            if (record.getHeader().getTableNumber() == table && (predicate == null || predicate.matches(record.getData()))) {
+                results.add(new DataRecord(record, def, projection));
+            }
+        }
+    }
+
+    @Override
+    public List<DataRecord> getResult() {
+        return results;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import nl.cad.tpsparse.tps.record.DataRecord;
+import nl.cad.tpsparse.tps.record.TableDefinitionRecord;
+
+/**
+ * Spliterator over the data records of a table. It covers a range of pages
+ * and only parses a page when its records are needed. Splitting hands half
+ * of the remaining pages to the new spliterator.
+ * @author E.Hooijmeijer
+ */
+class DataRecordSpliterator implements Spliterator<DataRecord> {
+
+    private final TpsFile file;
+    private final TpsBlock[] blocks;
+    private final int[] pages;
+    private final long[] recordCounts;
+    private final RecordFilter filter;
+    private final TableDefinitionRecord def;
+    private int next;
+    private final int end;
+    private List<TpsRecord> current;
+    private int currentIdx;
+
+    /**
+     * @param file the file.
+     * @param blocks the blocks of the file.
+     * @param table the table number.
+     * @param def the table definition.
+     */
+    DataRecordSpliterator(TpsFile file, List<TpsBlock> blocks, int table, TableDefinitionRecord def) {
+        int count = 0;
+        for (TpsBlock block : blocks) {
+            count += block.getPageCount();
+        }
+        this.file = file;
+        this.blocks = new TpsBlock[count];
+        this.pages = new int[count];
+        this.recordCounts = new long[count + 1];
+        this.filter = new RecordFilter(RecordFilter.DATA, table);
+        this.def = def;
+        this.next = 0;
+        this.end = count;
+        int idx = 0;
+        for (TpsBlock block : blocks) {
+            for (int t = 0; t < block.getPageCount(); t++) {
+                this.blocks[idx] = block;
+                this.pages[idx] = t;
+                // Pages with non 0x00 flags don't seem to contain TpsRecords.
+                int records = (block.getPageFlags(t) == 0x00 ? block.getRecordCount(t) : 0);
+                this.recordCounts[idx + 1] = this.recordCounts[idx] + records;
+                idx++;
+            }
+        }
+    }
+
+    private DataRecordSpliterator(DataRecordSpliterator parent, int next, int end) {
+        this.file = parent.file;
+        this.blocks = parent.blocks;
+        this.pages = parent.pages;
+        this.recordCounts = parent.recordCounts;
+        this.filter = parent.filter;
+        this.def = parent.def;
+        this.next = next;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super DataRecord> action) {
+        while (current == null || currentIdx >= current.size()) {
+            if (next >= end) {
+                current = null;
+                return false;
+            }
+            TpsPage page = blocks[next].getPage(pages[next]);
+            next++;
+            current = file.getRecords(page, filter);
+            currentIdx = 0;
+        }
+        action.accept(new DataRecord(current.get(currentIdx++), def));
+        return true;
+    }
+
+    @Override
+    public Spliterator<DataRecord> trySplit() {
+        int mid = (next + end) >>> 1;
+        if (mid <= next) {
+            return null;
+        }
+        // the prefix is split off, so the records of this spliterator stay in order.
+        DataRecordSpliterator prefix = new DataRecordSpliterator(this, next, mid);
+        prefix.current = current;
+        prefix.currentIdx = currentIdx;
+        current = null;
+        next = mid;
+        return prefix;
+    }
+
+    /**
+     * estimates the number of records from the record counts in the page
+     * headers, which are summed up once when the spliterator is created.
+     * These include the records of other tables and types, so the estimate
+     * is an upper bound and the spliterator is not SIZED.
+     */
+    @Override
+    public long estimateSize() {
+        long size = (current == null ? 0 : current.size() - currentIdx);
+        return size + recordCounts[end] - recordCounts[next];
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.cad.tpsparse.tps.header.IndexHeader;
+import nl.cad.tpsparse.tps.record.IndexRecord;
+
+/**
+ * Collects the index records of a table.
+ * @author E.Hooijmeijer
+ */
+public class IndexCollector extends RecordCollector<List<IndexRecord>> {
+
+    private final int table;
+    private final int index;
+    private final List<IndexRecord> results = new ArrayList<>();
+
+    /**
+     * @param table the table.
+     * @param index the index, or -1 for all indexes.
+     */
+    public IndexCollector(int table, int index) {
+        this.table = table;
+        this.index = index;
+    }
+
+    @Override
+    public RecordFilter getFilter() {
+        return new RecordFilter(index == -1 ? RecordFilter.INDEX : index, table);
+    }
+
+    @Override
+    public void onTpsRecord(TpsRecord record) {
+        if (record.getHeader() instanceof IndexHeader) {
+            IndexHeader idxHdr = (IndexHeader) record.getHeader();
+            if (idxHdr.getTableNumber() == table && (idxHdr.getIndexNumber() == index || index == -1)) {
+                results.add(new IndexRecord(record));
+            }
+        }
+    }
+
+    @Override
+    public List<IndexRecord> getResult() {
+        return results;
+    }
+
+    /**
+     * @return the record ids in the order of the index.
+     */
+    public List<Integer> getRecordIds() {
+        List<Integer> ids = new ArrayList<>();
+        for (IndexRecord i : results) {
+            ids.add(i.getRecordNumber());
+        }
+        return ids;
+    }
+}
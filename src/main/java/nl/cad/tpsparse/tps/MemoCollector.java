@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import nl.cad.tpsparse.tps.header.AbstractHeader;
+import nl.cad.tpsparse.tps.header.MemoHeader;
+import nl.cad.tpsparse.tps.record.MemoRecord;
+
+/**
+ * Collects the memo records of a single table and memo field. Long Memo
+ * fields are not stored in one record, they are spread out among multiple.
+ * So here we need to group and join them together.
+ * @author E.Hooijmeijer
+ */
+public class MemoCollector extends RecordCollector<Map<Integer, MemoRecord>> {
+
+    private final int tableNr;
+    private final int memoIdx;
+    private final Map<Integer, List<TpsRecord>> memoGroups = new TreeMap<>();
+
+    /**
+     * @param tableNr the table number.
+     * @param memoIdx the memo index (as a table may have multiple memo fields, zero based).
+     */
+    public MemoCollector(int tableNr, int memoIdx) {
+        this.tableNr = tableNr;
+        this.memoIdx = memoIdx;
+    }
+
+    @Override
+    public RecordFilter getFilter() {
+        return new RecordFilter(RecordFilter.MEMO, tableNr);
+    }
+
+    @Override
+    public void onTpsRecord(TpsRecord record) {
+        if (record.getHeader() instanceof MemoHeader) {
+            MemoHeader hdr = (MemoHeader) record.getHeader();
+            if (hdr.isApplicable(tableNr, memoIdx)) {
+                if (memoGroups.get(hdr.getOwningRecord()) == null) {
+                    memoGroups.put(Integer.valueOf(hdr.getOwningRecord()), new ArrayList<TpsRecord>());
+                }
+                while (memoGroups.get(hdr.getOwningRecord()).size() <= hdr.getSequenceNr()) {
+                    memoGroups.get(hdr.getOwningRecord()).add(null);
+                }
+                memoGroups.get(hdr.getOwningRecord()).set(hdr.getSequenceNr(), record);
+            }
+        }
+    }
+
+    @Override
+    public Map<Integer, MemoRecord> getResult() {
+        Map<Integer, MemoRecord> memos = new HashMap<>();
+        for (Map.Entry<Integer, List<TpsRecord>> memoGroup : memoGroups.entrySet()) {
+            if (isComplete(memoGroup.getValue())) {
+                AbstractHeader header = memoGroup.getValue().get(0).getHeader();
+                MemoRecord memorecord = new MemoRecord(header, merge(memoGroup.getValue()));
+                memos.put(memorecord.getOwner(), memorecord);
+            }
+        }
+        return memos;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.cad.tpsparse.tps.header.MemoHeader;
+import nl.cad.tpsparse.tps.record.MemoRecord;
+
+/**
+ * Knows where the memo records of a single table and memo field are, without
+ * keeping their contents in memory. For each memo record only the owning
+ * record, the sequence number and the page it is on are kept, in int arrays.
+ * Only the offsets of the pages that hold memo records are kept. A memo is
+ * read and joined together when it is asked for.
+ *
+ * Fetching a memo parses the page(s) it is on. The memo records of the most
+ * recently used pages are kept, so memos that span pages and rows that are
+ * fetched out of page order do not decompress the same pages over and over.
+ * A memo record that is no longer where the index says it is makes the memo
+ * incomplete. A MemoIndex is not thread safe.
+ *
+ * @author E.Hooijmeijer
+ */
+public class MemoIndex {
+
+    /**
+     * the number of pages of which the memo records are kept.
+     */
+    public static final int CACHED_PAGES = 16;
+
+    private final TpsFile tpsFile;
+    private final RecordFilter filter;
+    private final int tableNr;
+    private final int memoIdx;
+    private final boolean ignoreErrors;
+
+    // the offsets of the pages holding memo records.
+    private long[] pageOffsets = new long[4];
+    private int pageCount;
+
+    // the memo records, chained per owner from the last added to the first.
+    private int[] sequenceNrs = new int[16];
+    private int[] pageNrs = new int[16];
+    private int[] next = new int[16];
+    private int size;
+
+    // open addressing table from owner to the last added memo record + 1.
+    private int[] slotOwners = new int[16];
+    private int[] slotHeads = new int[16];
+    private int slotsUsed;
+
+    private final Map<Integer, List<TpsRecord>> cache = new LinkedHashMap<Integer, List<TpsRecord>>(CACHED_PAGES * 2, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<TpsRecord>> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+
+    /**
+     * @param tpsFile the file to read the memos from.
+     * @param tableNr the table number.
+     * @param memoIdx the memo index (zero based).
+     * @param ignoreErrors treats pages that cannot be decompressed as empty.
+     */
+    MemoIndex(TpsFile tpsFile, int tableNr, int memoIdx, boolean ignoreErrors) {
+        this.tpsFile = tpsFile;
+        this.filter = new RecordFilter(RecordFilter.MEMO, tableNr);
+        this.tableNr = tableNr;
+        this.memoIdx = memoIdx;
+        this.ignoreErrors = ignoreErrors;
+    }
+
+    public int getTableNr() {
+        return tableNr;
+    }
+
+    public int getMemoIdx() {
+        return memoIdx;
+    }
+
+    /**
+     * @return the number of memo records (not memos) in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    private int slot(int owner) {
+        int mask = slotHeads.length - 1;
+        int hash = owner * 0x9E3779B9;
+        int idx = (hash ^ (hash >>> 16)) & mask;
+        while (slotHeads[idx] != 0 && slotOwners[idx] != owner) {
+            idx = (idx + 1) & mask;
+        }
+        return idx;
+    }
+
+    /**
+     * @return the number of pages holding memo records.
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * adds the location of a memo record. The records of a page are added
+     * together, so a page is only added once.
+     * @param header the memo header.
+     * @param pageOffset the offset of the page the record is on.
+     */
+    void add(MemoHeader header, long pageOffset) {
+        if (pageCount == 0 || pageOffsets[pageCount - 1] != pageOffset) {
+            if (pageCount == pageOffsets.length) {
+                pageOffsets = Arrays.copyOf(pageOffsets, pageCount * 2);
+            }
+            pageOffsets[pageCount++] = pageOffset;
+        }
+        int pageNr = pageCount - 1;
+        if (size == next.length) {
+            sequenceNrs = Arrays.copyOf(sequenceNrs, size * 2);
+            pageNrs = Arrays.copyOf(pageNrs, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+        }
+        if ((slotsUsed + 1) * 2 > slotHeads.length) {
+            rehash();
+        }
+        int owner = header.getOwningRecord();
+        int slot = slot(owner);
+        if (slotHeads[slot] == 0) {
+            slotOwners[slot] = owner;
+            slotsUsed++;
+        }
+        sequenceNrs[size] = header.getSequenceNr();
+        pageNrs[size] = pageNr;
+        next[size] = slotHeads[slot] - 1;
+        slotHeads[slot] = ++size;
+    }
+
+    private void rehash() {
+        int[] oldOwners = slotOwners;
+        int[] oldHeads = slotHeads;
+        slotOwners = new int[oldHeads.length * 2];
+        slotHeads = new int[oldHeads.length * 2];
+        for (int t = 0; t < oldHeads.length; t++) {
+            if (oldHeads[t] != 0) {
+                int slot = slot(oldOwners[t]);
+                slotOwners[slot] = oldOwners[t];
+                slotHeads[slot] = oldHeads[t];
+            }
+        }
+    }
+
+    /**
+     * @param owner the record number of the owning data record.
+     * @return true if there is at least one memo record for the owner.
+     */
+    public boolean contains(int owner) {
+        return slotHeads[slot(owner)] != 0;
+    }
+
+    /**
+     * reads and joins the memo records of the owner.
+     * @param owner the record number of the owning data record.
+     * @return the memo or null if there is no memo, or if it is incomplete.
+     */
+    public MemoRecord get(int owner) {
+        int head = slotHeads[slot(owner)] - 1;
+        if (head < 0) {
+            return null;
+        }
+        int count = 0;
+        for (int idx = head; idx >= 0; idx = next[idx]) {
+            count = Math.max(count, sequenceNrs[idx] + 1);
+        }
+        // the last added record wins if a sequence number occurs twice.
+        int[] locations = new int[count];
+        Arrays.fill(locations, -1);
+        for (int idx = head; idx >= 0; idx = next[idx]) {
+            if (locations[sequenceNrs[idx]] < 0) {
+                locations[sequenceNrs[idx]] = idx;
+            }
+        }
+        List<TpsRecord> records = new ArrayList<>(count);
+        for (int location : locations) {
+            TpsRecord record = (location < 0 ? null : find(pageNrs[location], owner, sequenceNrs[location]));
+            if (record == null) {
+                return null;
+            }
+            records.add(record);
+        }
+        return new MemoRecord(records.get(0).getHeader(), RecordCollector.merge(records));
+    }
+
+    /**
+     * @return a copy of the memo record (with its own position) or null if it is not on the page.
+     */
+    private TpsRecord find(int pageNr, int owner, int sequenceNr) {
+        // like the MemoCollector, the last record wins.
+        TpsRecord found = null;
+        for (TpsRecord record : getRecords(pageNr)) {
+            if (record.getHeader() instanceof MemoHeader) {
+                MemoHeader header = (MemoHeader) record.getHeader();
+                if (header.isApplicable(tableNr, memoIdx) && header.getOwningRecord() == owner && header.getSequenceNr() == sequenceNr) {
+                    found = record;
+                }
+            }
+        }
+        return (found == null ? null : new TpsRecord(found));
+    }
+
+    /**
+     * @return the memo records of the page, from the cache or parsed from the file.
+     */
+    private List<TpsRecord> getRecords(int pageNr) {
+        List<TpsRecord> records = cache.get(pageNr);
+        if (records == null) {
+            TpsPage page = tpsFile.getPageAt(pageOffsets[pageNr], ignoreErrors);
+            records = tpsFile.getRecords(page, filter);
+            page.flush();
+            cache.put(pageNr, records);
+        }
+        return records;
+    }
+
+    /**
+     * releases the memo records that are kept from previous fetches.
+     */
+    public void flush() {
+        cache.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "MemoIndex(" + tableNr + "," + memoIdx + "," + size + ")";
+    }
+}
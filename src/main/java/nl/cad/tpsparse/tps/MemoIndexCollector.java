@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.cad.tpsparse.tps.header.MemoHeader;
+
+/**
+ * Builds a MemoIndex for each of a number of memo fields of a table. As a
+ * RecordCollector it can share a ScanPlan with the collector of the data
+ * records, so the memos are indexed in the same pass.
+ * @author E.Hooijmeijer
+ */
+public class MemoIndexCollector extends RecordCollector<List<MemoIndex>> {
+
+    private final int tableNr;
+    private final List<MemoIndex> indexes = new ArrayList<>();
+
+    /**
+     * @param tpsFile the file the memos are read from when they are fetched.
+     * @param tableNr the table number.
+     * @param memoIdxs the memo indexes (zero based).
+     * @param ignoreErrors treats memo pages that cannot be decompressed as empty.
+     */
+    public MemoIndexCollector(TpsFile tpsFile, int tableNr, int[] memoIdxs, boolean ignoreErrors) {
+        this.tableNr = tableNr;
+        for (int memoIdx : memoIdxs) {
+            indexes.add(new MemoIndex(tpsFile, tableNr, memoIdx, ignoreErrors));
+        }
+    }
+
+    @Override
+    public RecordFilter getFilter() {
+        return new RecordFilter(RecordFilter.MEMO, tableNr);
+    }
+
+    /**
+     * @return true if there are no memo fields to index.
+     */
+    public boolean isEmpty() {
+        return indexes.isEmpty();
+    }
+
+    @Override
+    public void onTpsRecord(TpsRecord record) {
+        if (record.getHeader() instanceof MemoHeader) {
+            MemoHeader hdr = (MemoHeader) record.getHeader();
+            for (MemoIndex index : indexes) {
+                if (hdr.isApplicable(tableNr, index.getMemoIdx())) {
+                    index.add(hdr, record.getPageOffset());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return an index per memo field, in the order of the memo indexes.
+     */
+    @Override
+    public List<MemoIndex> getResult() {
+        return indexes;
+    }
+}
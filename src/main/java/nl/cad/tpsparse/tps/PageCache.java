@@ -0,0 +1,167 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the parsed TpsRecords of decompressed pages, so repeated visits of a
+ * TpsFile do not have to decompress and parse the same pages over and over.
+ *
+ * The records hold views on the decompressed page, so caching them keeps the
+ * page buffer alive. Each cached page is weighed by the heap it holds on to:
+ * the decompressed data of a compressed page (an uncompressed page is a view on
+ * the file) plus the bytes the records copied from their predecessors and an
+ * estimate of the record objects themselves. The least recently used pages are
+ * evicted when the total weight exceeds the budget.
+ *
+ * Pages are identified by their offset, so a cache should only be used for
+ * a single TpsFile.
+ *
+ * @author E.Hooijmeijer
+ */
+public class PageCache {
+
+    /**
+     * the estimated size of a cached record, its header and its views.
+     */
+    public static final int RECORD_OVERHEAD = 64;
+
+    private static class Entry {
+        private List<TpsRecord> records;
+        private long weight;
+    }
+
+    private final long budget;
+    private final LinkedHashMap<Long, Entry> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param budget the maximum number of bytes to keep.
+     */
+    public PageCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * retrieves the records of a page.
+     * @param offset the offset of the page.
+     * @return copies of the cached records, each with its own position, or null if the page is not cached.
+     */
+    public synchronized List<TpsRecord> get(long offset) {
+        Entry e = pages.get(offset);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(e.records);
+    }
+
+    /**
+     * retrieves the records of a page that are selected by the filter.
+     * @param offset the offset of the page.
+     * @param filter the filter.
+     * @return copies of the selected records, or null if the page is not cached.
+     */
+    public synchronized List<TpsRecord> get(long offset, RecordFilter filter) {
+        Entry e = pages.get(offset);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        List<TpsRecord> results = new ArrayList<>();
+        for (TpsRecord record : e.records) {
+            if (filter.matches(record)) {
+                results.add(new TpsRecord(record));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * caches the records of a page. Copies of the records are cached, so the
+     * given records can still be handed out.
+     * @param offset the offset of the page.
+     * @param records the parsed records.
+     * @param dataLength the length of the buffer the page was decompressed
+     * into, 0 if the records are views on the file.
+     */
+    public synchronized void put(long offset, List<TpsRecord> records, long dataLength) {
+        Entry e = new Entry();
+        e.records = copy(records);
+        e.weight = dataLength;
+        byte[] previous = null;
+        for (TpsRecord record : records) {
+            e.weight += RECORD_OVERHEAD;
+            // the records themselves are views on the page, only their prefixes are copies.
+            byte[] prefix = record.getPrefix();
+            if (prefix != null && prefix != previous) {
+                e.weight += prefix.length;
+            }
+            previous = prefix;
+        }
+        if (e.weight > budget) {
+            return;
+        }
+        Entry old = pages.put(offset, e);
+        if (old != null) {
+            size -= old.weight;
+        }
+        size += e.weight;
+        Iterator<Map.Entry<Long, Entry>> it = pages.entrySet().iterator();
+        while (size > budget && it.hasNext()) {
+            size -= it.next().getValue().weight;
+            it.remove();
+        }
+    }
+
+    private List<TpsRecord> copy(List<TpsRecord> records) {
+        List<TpsRecord> results = new ArrayList<>(records.size());
+        for (TpsRecord record : records) {
+            results.add(new TpsRecord(record));
+        }
+        return results;
+    }
+
+    public synchronized void clear() {
+        pages.clear();
+        size = 0;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.cad.tpsparse.bin.RandomAccess;
+
+/**
+ * The PageIndex holds the page offsets and sizes of all TpsBlocks in a TpsFile,
+ * so a file that has not changed can be reopened without scanning for its pages.
+ *
+ * It is stored as a sidecar file next to the TPS file (with a '.pages' suffix)
+ * and is keyed by the length and modification time of the file and the change
+ * counter in the TpsHeader. If any of these differ, or an indexed page no
+ * longer has the indexed size, the index is rebuilt.
+ *
+ * An index built while ignoring errors may lack the pages that could not be
+ * read. It is marked as such and is rebuilt when the file is opened without
+ * ignoring errors, so those pages fail again instead of silently disappearing.
+ *
+ * @author E.Hooijmeijer
+ */
+public class PageIndex {
+
+    private static final int MAGIC = 0x54505349; // TPSI
+    private static final int VERSION = 2;
+
+    private long fileLength;
+    private long lastModified;
+    private int changes;
+    private boolean ignoreErrors;
+    private List<Entry> entries = new ArrayList<>();
+
+    /**
+     * the pages of a single TpsBlock.
+     */
+    private static class Entry {
+        private long start;
+        private long end;
+        private long[] offsets;
+        private int[] sizes;
+    }
+
+    public PageIndex(long fileLength, long lastModified, int changes) {
+        this(fileLength, lastModified, changes, false);
+    }
+
+    /**
+     * @param fileLength the length of the file.
+     * @param lastModified the modification time of the file.
+     * @param changes the change counter of the TpsHeader.
+     * @param ignoreErrors true if the pages were found while ignoring errors.
+     */
+    public PageIndex(long fileLength, long lastModified, int changes, boolean ignoreErrors) {
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.changes = changes;
+        this.ignoreErrors = ignoreErrors;
+    }
+
+    /**
+     * opens the page index for the given TPS file, building and saving it when
+     * there is no usable sidecar. The index is installed on the TpsFile. The
+     * sidecar is only a speed-up: when it cannot be written (read-only
+     * directory) a warning is printed and the in-memory index is used.
+     * @param tps the opened (and decrypted) TPS file.
+     * @param file the file the TpsFile was read from.
+     * @param ignoreErrors ignores page parse errors when building the index.
+     * @return the page index.
+     */
+    public static PageIndex open(TpsFile tps, File file, boolean ignoreErrors) {
+        File sidecar = sidecarOf(file);
+        int changes = tps.getHeader().getChanges();
+        PageIndex index = load(sidecar);
+        if (index == null || !index.matches(file.length(), file.lastModified(), changes) || (index.isIgnoreErrors() && !ignoreErrors)
+                || !index.isValidFor(tps.getRandomAccess())) {
+            tps.setPageIndex(null);
+            index = build(tps.getTpsBlocks(ignoreErrors), file.length(), file.lastModified(), changes, ignoreErrors);
+            try {
+                index.save(sidecar);
+            } catch (IOException ex) {
+                System.err.println("Unable to write page index " + sidecar + " : " + ex.getMessage());
+            }
+        }
+        tps.setPageIndex(index);
+        return index;
+    }
+
+    /**
+     * @param file the TPS file.
+     * @return the location of the sidecar for the TPS file.
+     */
+    public static File sidecarOf(File file) {
+        return new File(file.getPath() + ".pages");
+    }
+
+    /**
+     * builds a page index from already scanned blocks.
+     * @param blocks the blocks.
+     * @param fileLength the length of the file.
+     * @param lastModified the modification time of the file.
+     * @param changes the change counter of the TpsHeader.
+     * @return the page index.
+     */
+    public static PageIndex build(List<TpsBlock> blocks, long fileLength, long lastModified, int changes) {
+        return build(blocks, fileLength, lastModified, changes, false);
+    }
+
+    /**
+     * builds a page index from already scanned blocks.
+     * @param blocks the blocks.
+     * @param fileLength the length of the file.
+     * @param lastModified the modification time of the file.
+     * @param changes the change counter of the TpsHeader.
+     * @param ignoreErrors true if the blocks were scanned while ignoring errors.
+     * @return the page index.
+     */
+    public static PageIndex build(List<TpsBlock> blocks, long fileLength, long lastModified, int changes, boolean ignoreErrors) {
+        PageIndex index = new PageIndex(fileLength, lastModified, changes, ignoreErrors);
+        for (TpsBlock block : blocks) {
+            Entry e = new Entry();
+            e.start = block.getStart();
+            e.end = block.getEnd();
+            e.offsets = new long[block.getPageCount()];
+            e.sizes = new int[block.getPageCount()];
+            for (int t = 0; t < e.offsets.length; t++) {
+                e.offsets[t] = block.getPageOffset(t);
+                e.sizes[t] = block.getPageSize(t);
+            }
+            index.entries.add(e);
+        }
+        return index;
+    }
+
+    /**
+     * reads a page index.
+     * @param sidecar the sidecar file.
+     * @return the page index or null if it does not exist, is unreadable or corrupt.
+     */
+    public static PageIndex load(File sidecar) {
+        if (!sidecar.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            PageIndex index = new PageIndex(in.readLong(), in.readLong(), in.readInt(), in.readBoolean());
+            int blocks = in.readInt();
+            if (blocks < 0 || blocks > sidecar.length() / 20) {
+                return null;
+            }
+            for (int t = 0; t < blocks; t++) {
+                Entry e = new Entry();
+                e.start = in.readLong();
+                e.end = in.readLong();
+                int pages = in.readInt();
+                if (pages < 0 || pages > sidecar.length() / 12) {
+                    return null;
+                }
+                e.offsets = new long[pages];
+                e.sizes = new int[pages];
+                for (int p = 0; p < pages; p++) {
+                    e.offsets[p] = in.readLong();
+                    e.sizes[p] = in.readInt();
+                }
+                index.entries.add(e);
+            }
+            return index;
+        } catch (IOException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * writes the page index.
+     * @param sidecar the sidecar file.
+     * @throws IOException when writing fails.
+     */
+    public void save(File sidecar) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileLength);
+            out.writeLong(lastModified);
+            out.writeInt(changes);
+            out.writeBoolean(ignoreErrors);
+            out.writeInt(entries.size());
+            for (Entry e : entries) {
+                out.writeLong(e.start);
+                out.writeLong(e.end);
+                out.writeInt(e.offsets.length);
+                for (int p = 0; p < e.offsets.length; p++) {
+                    out.writeLong(e.offsets[p]);
+                    out.writeInt(e.sizes[p]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the index was built for a file with the given properties.
+     */
+    public boolean matches(long fileLength, long lastModified, int changes) {
+        return this.fileLength == fileLength && this.lastModified == lastModified && this.changes == changes;
+    }
+
+    /**
+     * checks that every indexed page still has the indexed size.
+     * @param rx the file contents.
+     * @return true if all pages are where the index says they are.
+     */
+    public boolean isValidFor(RandomAccess rx) {
+        for (Entry e : entries) {
+            for (int p = 0; p < e.offsets.length; p++) {
+                long ofs = e.offsets[p];
+                if (ofs < 0 || ofs + 6 > rx.length() || rx.peekLeShort(ofs + 4) != e.sizes[p]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param start the start of the block.
+     * @param end the end of the block.
+     * @return the page offsets of the block or null if the block is not indexed.
+     */
+    public long[] getPageOffsets(long start, long end) {
+        for (Entry e : entries) {
+            if (e.start == start && e.end == end) {
+                return e.offsets;
+            }
+        }
+        return null;
+    }
+
+    public int getBlockCount() {
+        return entries.size();
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public int getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return true if the pages were found while ignoring errors, so some may be missing.
+     */
+    public boolean isIgnoreErrors() {
+        return ignoreErrors;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import nl.cad.tpsparse.bin.RandomAccess;
+import nl.cad.tpsparse.tps.TpsFile.Visitor;
+
+/**
+ * A Visitor that collects a result from the records selected by its filter.
+ * Collectors can be combined in a ScanPlan to gather several results in a
+ * single pass over the file.
+ * @param <T> the type of the result.
+ * @author E.Hooijmeijer
+ */
+public abstract class RecordCollector<T> implements Visitor {
+
+    /**
+     * @return the filter that selects the records this collector is interested in.
+     */
+    public abstract RecordFilter getFilter();
+
+    /**
+     * @return the result, after the file has been visited.
+     */
+    public abstract T getResult();
+
+    /**
+     * checks if the record set is complete.
+     * @param values the the record set.
+     * @return true if all records are there.
+     */
+    protected static boolean isComplete(List<TpsRecord> values) {
+        for (TpsRecord value : values) {
+            if (value == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * merges the payload of a number of TpsRecords into one.
+     * @param records the records.
+     * @return the merged records.
+     */
+    protected static RandomAccess merge(List<TpsRecord> records) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (TpsRecord rec : records) {
+            try {
+                out.write(rec.getData().remainder());
+            } catch (IOException ex) {
+                throw new RuntimeException("Error while merging TpsRecords", ex);
+            }
+        }
+        return new RandomAccess(out.toByteArray());
+    }
+}
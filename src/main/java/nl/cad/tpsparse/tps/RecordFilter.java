@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.util.List;
+
+import nl.cad.tpsparse.tps.header.AbstractHeader;
+import nl.cad.tpsparse.tps.header.TableNameHeader;
+
+/**
+ * Selects TpsRecords by type and table number using the raw bytes of the
+ * record header, so records that are not selected never have to be built.
+ *
+ * The type is the byte at position 4 of the header (0xF3 for data, 0xF6 for
+ * metadata, 0xFA for table definitions, 0xFC for memos and the index number
+ * for indexes). Table name records are recognized by 0xFE at position 0 and
+ * have no table number. The table number is the big endian int at position 0.
+ *
+ * @author E.Hooijmeijer
+ */
+public class RecordFilter {
+
+    public static final int ANY = -1;
+    public static final int DATA = 0xF3;
+    public static final int METADATA = 0xF6;
+    public static final int TABLE_DEFINITION = 0xFA;
+    public static final int MEMO = 0xFC;
+    public static final int TABLE_NAME = 0xFE;
+    /**
+     * matches index records of any index.
+     */
+    public static final int INDEX = 0x100;
+
+    public static final RecordFilter ALL = new RecordFilter(ANY, ANY);
+
+    private final int type;
+    private final int table;
+    private final RecordFilter[] alternatives;
+
+    /**
+     * @param type the record type, an index number, INDEX or ANY.
+     * @param table the table number or ANY.
+     */
+    public RecordFilter(int type, int table) {
+        this(type, table, null);
+    }
+
+    private RecordFilter(int type, int table, RecordFilter[] alternatives) {
+        this.type = type;
+        this.table = table;
+        this.alternatives = alternatives;
+    }
+
+    /**
+     * @param filters the filters.
+     * @return a filter that selects the records selected by any of the filters.
+     */
+    public static RecordFilter anyOf(List<RecordFilter> filters) {
+        for (RecordFilter filter : filters) {
+            if (filter.type == ANY && filter.table == ANY && filter.alternatives == null) {
+                return ALL;
+            }
+        }
+        return new RecordFilter(ANY, ANY, filters.toArray(new RecordFilter[filters.size()]));
+    }
+
+    /**
+     * checks the raw bytes of a record.
+     * @param head the first bytes of the record.
+     * @param len the number of valid bytes in head.
+     * @param headerLength the header length of the record.
+     * @return true if the record is selected.
+     */
+    public boolean matches(byte[] head, int len, int headerLength) {
+        if (alternatives != null) {
+            for (RecordFilter alternative : alternatives) {
+                if (alternative.matches(head, len, headerLength)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (type == ANY && table == ANY) {
+            return true;
+        }
+        if (headerLength < 5 || len < 5) {
+            return false;
+        }
+        if ((head[0] & 0xFF) == 0xFE) {
+            return type == ANY || type == TABLE_NAME;
+        }
+        int tableNumber = ((head[0] & 0xFF) << 24) | ((head[1] & 0xFF) << 16) | ((head[2] & 0xFF) << 8) | (head[3] & 0xFF);
+        return matches(head[4] & 0xFF, tableNumber);
+    }
+
+    /**
+     * checks an already built record.
+     * @param record the record.
+     * @return true if the record is selected.
+     */
+    public boolean matches(TpsRecord record) {
+        if (alternatives != null) {
+            for (RecordFilter alternative : alternatives) {
+                if (alternative.matches(record)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (type == ANY && table == ANY) {
+            return true;
+        }
+        AbstractHeader header = record.getHeader();
+        if (header == null) {
+            return false;
+        }
+        if (header instanceof TableNameHeader) {
+            return type == ANY || type == TABLE_NAME;
+        }
+        return matches(header.getType(), header.getTableNumber());
+    }
+
+    private boolean matches(int recordType, int tableNumber) {
+        if (type == TABLE_NAME || (table != ANY && table != tableNumber)) {
+            return false;
+        }
+        if (type == ANY || type == recordType) {
+            return true;
+        }
+        if (type == INDEX) {
+            return recordType != DATA && recordType != METADATA && recordType != TABLE_DEFINITION && recordType != MEMO;
+        }
+        return false;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getTable() {
+        return table;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.util.Arrays;
+
+import nl.cad.tpsparse.bin.RandomAccess;
+
+/**
+ * Walks over the records in the decompressed data of a page. For each record
+ * the flags and lengths are read and the first bytes of the record are
+ * rebuilt in a small buffer, reusing the bytes of the previous record as
+ * indicated by the flags. The caller then decides, usually by looking at
+ * those first bytes, to read the record or to skip it.
+ *
+ * Used by TpsPage.getRecords(RecordFilter) and the RowCursor.
+ *
+ * @author E.Hooijmeijer
+ */
+class RecordReader {
+
+    /**
+     * the number of bytes that are rebuilt for each record, enough for the
+     * record headers the filters look at.
+     */
+    static final int HEAD = 64;
+
+    private final RandomAccess data;
+    private final int recordCount;
+    private byte[] head = new byte[HEAD];
+    private byte[] prevHead = new byte[HEAD];
+    private int count;
+    private int recordFlags;
+    private int recordLength;
+    private int headerLength;
+    private int headLength;
+    private int copy;
+
+    /**
+     * @param data the decompressed data of the page, positioned at the first record.
+     * @param recordCount the number of records in the page, as stored in its header.
+     */
+    RecordReader(RandomAccess data, int recordCount) {
+        this.data = data;
+        this.recordCount = recordCount;
+    }
+
+    /**
+     * @return true if there is another record on the page.
+     */
+    boolean hasNext() {
+        return count == 0 || (!data.isAtEnd() && count < recordCount);
+    }
+
+    /**
+     * reads the flags and lengths of the next record and rebuilds its first
+     * bytes. The record itself must be read or skipped next.
+     */
+    void next() {
+        recordFlags = data.leByte();
+        if (count == 0 && (recordFlags & 0xC0) != 0xC0) {
+            throw new IllegalArgumentException("Can't construct a TpsRecord without record lengths (0x" + data.toHex2(recordFlags) + ")");
+        }
+        if ((recordFlags & 0x80) != 0) {
+            recordLength = data.leShort();
+        }
+        if ((recordFlags & 0x40) != 0) {
+            headerLength = data.leShort();
+        }
+        // The first record never copies, like in TpsRecord(RandomAccess).
+        copy = (count == 0 ? 0 : recordFlags & 0x3F);
+        if (copy > recordLength || copy > headLength) {
+            throw new RuntimeException("When  reading " + (recordLength - copy) + " bytes of TpsRecord at " + data);
+        }
+        byte[] tmp = prevHead;
+        prevHead = head;
+        head = tmp;
+        headLength = Math.min(recordLength, HEAD);
+        System.arraycopy(prevHead, 0, head, 0, copy);
+        data.peekBytes(data.position(), head, copy, headLength - copy);
+        count++;
+    }
+
+    /**
+     * @return the first bytes of the current record, see getHeadLength().
+     */
+    byte[] getHead() {
+        return head;
+    }
+
+    /**
+     * @return the number of valid bytes in getHead().
+     */
+    int getHeadLength() {
+        return headLength;
+    }
+
+    int getFlags() {
+        return recordFlags;
+    }
+
+    /**
+     * @return the length of the current record, including its header.
+     */
+    int getRecordLength() {
+        return recordLength;
+    }
+
+    int getHeaderLength() {
+        return headerLength;
+    }
+
+    /**
+     * @return the bytes of the current record that are copied from the previous record, or null if there are none.
+     */
+    byte[] getPrefix() {
+        return (copy == 0 ? null : Arrays.copyOf(head, copy));
+    }
+
+    /**
+     * @return a view on the bytes of the current record that follow the prefix.
+     */
+    RandomAccess read() {
+        return data.read(recordLength - copy);
+    }
+
+    /**
+     * copies the complete current record, including the prefix.
+     * @param target the buffer, at least getRecordLength() long.
+     */
+    void readInto(byte[] target) {
+        System.arraycopy(head, 0, target, 0, copy);
+        data.readBytes(target, copy, recordLength - copy);
+    }
+
+    /**
+     * skips the current record.
+     */
+    void skip() {
+        data.jumpRel(recordLength - copy);
+    }
+}
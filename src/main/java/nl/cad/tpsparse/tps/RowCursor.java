@@ -0,0 +1,423 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import nl.cad.tpsparse.bin.BinaryCodedDecimal;
+import nl.cad.tpsparse.bin.PackedDateTime;
+import nl.cad.tpsparse.bin.StringDecoder;
+import nl.cad.tpsparse.tps.record.FieldDefinitionRecord;
+import nl.cad.tpsparse.tps.record.TableDefinitionRecord;
+
+/**
+ * Iterates over the data records of a table without creating objects per
+ * row. Each record is rebuilt in a single reusable buffer, straight from the
+ * decompressed page, and the fields are read from that buffer by the typed
+ * getters. Records of other tables and types are skipped after looking at
+ * their first bytes.
+ *
+ * Typical usage :
+ * <pre>
+ * RowCursor cursor = tpsFile.openRowCursor(table, def, false);
+ * while (cursor.next()) {
+ *     total += cursor.getLong(0);
+ * }
+ * </pre>
+ *
+ * Fields are identified by their index in the TableDefinitionRecord. Array
+ * elements are selected with the element index, the getters without element
+ * index read the first element.
+ *
+ * @author E.Hooijmeijer
+ */
+public class RowCursor {
+
+    private final List<TpsBlock> blocks;
+    private final RecordFilter filter;
+    private final StringDecoder strings;
+    private final int[] types;
+    private final int[] offsets;
+    private final int[] elementSizes;
+    private final int[] decimals;
+    private final String[] names;
+
+    private int blockIdx;
+    private int pageIdx = -1;
+    private RecordReader records;
+
+    private byte[] row = new byte[256];
+    private int recordLength;
+    private int headerLength;
+
+    /**
+     * @param blocks the blocks of the file.
+     * @param table the table number.
+     * @param def the table definition.
+     */
+    RowCursor(List<TpsBlock> blocks, int table, TableDefinitionRecord def) {
+        this.blocks = blocks;
+        this.filter = new RecordFilter(RecordFilter.DATA, table);
+        this.strings = def.getStringDecoder();
+        List<FieldDefinitionRecord> fields = def.getFields();
+        types = new int[fields.size()];
+        offsets = new int[fields.size()];
+        elementSizes = new int[fields.size()];
+        decimals = new int[fields.size()];
+        names = new String[fields.size()];
+        for (int t = 0; t < types.length; t++) {
+            FieldDefinitionRecord field = fields.get(t);
+            types[t] = field.getFieldType();
+            offsets[t] = field.getOffset();
+            elementSizes[t] = (field.isArray() ? field.getLength() / field.getNrOfElements() : field.getLength());
+            decimals[t] = field.getBcdDigitsAfterDecimalPoint();
+            names[t] = field.getFieldName();
+        }
+    }
+
+    /**
+     * moves to the next data record.
+     * @return false if there are no more records.
+     */
+    public boolean next() {
+        while (true) {
+            if (records == null || !records.hasNext()) {
+                if (!nextPage()) {
+                    return false;
+                }
+            } else if (readRecord()) {
+                return true;
+            }
+        }
+    }
+
+    private boolean nextPage() {
+        records = null;
+        while (blockIdx < blocks.size()) {
+            TpsBlock block = blocks.get(blockIdx);
+            if (++pageIdx < block.getPageCount()) {
+                TpsPage page = block.getPage(pageIdx);
+                if (page.hasRecords()) {
+                    records = new RecordReader(page.getUncompressedData(), page.getRecordCount());
+                    return true;
+                }
+            } else {
+                blockIdx++;
+                pageIdx = -1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * reads the next record of the page into the row buffer if it is a data
+     * record of the table, skips it otherwise.
+     * @return true if the record is a data record of the table.
+     */
+    private boolean readRecord() {
+        records.next();
+        if (!filter.matches(records.getHead(), records.getHeadLength(), records.getHeaderLength())) {
+            records.skip();
+            return false;
+        }
+        recordLength = records.getRecordLength();
+        headerLength = records.getHeaderLength();
+        if (row.length < recordLength) {
+            row = new byte[Math.max(recordLength, row.length * 2)];
+        }
+        records.readInto(row);
+        return true;
+    }
+
+    /**
+     * @return the record number of the current record.
+     */
+    public int getRecordNumber() {
+        return ((row[5] & 0xFF) << 24) | ((row[6] & 0xFF) << 16) | ((row[7] & 0xFF) << 8) | (row[8] & 0xFF);
+    }
+
+    /**
+     * @return the length of the current record, including its header.
+     */
+    public int getRecordLength() {
+        return recordLength;
+    }
+
+    private int position(int field, int element, int len) {
+        int pos = headerLength + offsets[field] + element * elementSizes[field];
+        if (element < 0 || pos + len > recordLength) {
+            throw new ArrayIndexOutOfBoundsException("Array index out of range: " + (pos + len));
+        }
+        return pos;
+    }
+
+    private int leShort(int pos) {
+        return (row[pos] & 0xFF) | ((row[pos + 1] & 0xFF) << 8);
+    }
+
+    private int leLong(int pos) {
+        return (row[pos] & 0xFF) | ((row[pos + 1] & 0xFF) << 8) | ((row[pos + 2] & 0xFF) << 16) | ((row[pos + 3] & 0xFF) << 24);
+    }
+
+    private IllegalArgumentException wrongType(int field, String expected) {
+        return new IllegalArgumentException("Field '" + names[field] + "' of type " + types[field] + " is not " + expected);
+    }
+
+    public int getInt(int field) {
+        return getInt(field, 0);
+    }
+
+    /**
+     * reads BYTE, SHORT and LONG fields. Dates and times are returned in
+     * their packed form.
+     * @param field the field index.
+     * @param element the array element.
+     * @return the value.
+     */
+    public int getInt(int field, int element) {
+        switch (types[field]) {
+        case 1:
+            return row[position(field, element, 1)] & 0xFF;
+        case 2:
+        case 3:
+            return leShort(position(field, element, 2));
+        case 4:
+        case 5:
+        case 6:
+        case 7:
+            return leLong(position(field, element, 4));
+        default:
+            throw wrongType(field, "an integer");
+        }
+    }
+
+    public long getLong(int field) {
+        return getLong(field, 0);
+    }
+
+    /**
+     * reads integer fields, with ULONG fields as unsigned.
+     * @param field the field index.
+     * @param element the array element.
+     * @return the value.
+     */
+    public long getLong(int field, int element) {
+        if (types[field] == 7) {
+            return leLong(position(field, element, 4)) & 0xFFFFFFFFL;
+        }
+        return getInt(field, element);
+    }
+
+    public double getDouble(int field) {
+        return getDouble(field, 0);
+    }
+
+    /**
+     * reads FLOAT, DOUBLE and BCD fields, and integer fields as double.
+     * @param field the field index.
+     * @param element the array element.
+     * @return the value.
+     */
+    public double getDouble(int field, int element) {
+        switch (types[field]) {
+        case 8:
+            return Float.intBitsToFloat(leLong(position(field, element, 4)));
+        case 9:
+            int pos = position(field, element, 8);
+            long lsb = leLong(pos) & 0xFFFFFFFFL;
+            long msb = leLong(pos + 4) & 0xFFFFFFFFL;
+            return Double.longBitsToDouble(msb << 32 | lsb);
+        case 0x0A:
+            return getBcd(field, element);
+        default:
+            return getLong(field, element);
+        }
+    }
+
+    private double getBcd(int field, int element) {
+        int len = elementSizes[field];
+        int pos = position(field, element, len);
+        if (BinaryCodedDecimal.digits(len) <= BinaryCodedDecimal.MAX_LONG_DIGITS) {
+            return BinaryCodedDecimal.unscaled(row, pos, len) / Math.pow(10, decimals[field]);
+        }
+        return BinaryCodedDecimal.toBigDecimal(row, pos, len, decimals[field]).doubleValue();
+    }
+
+    /**
+     * @param field the field index.
+     * @return the number of digits after the decimal point of a BCD field.
+     */
+    public int getScale(int field) {
+        if (types[field] != 0x0A) {
+            throw wrongType(field, "a decimal");
+        }
+        return decimals[field];
+    }
+
+    public long getUnscaled(int field) {
+        return getUnscaled(field, 0);
+    }
+
+    /**
+     * reads a BCD field without its decimal point, so 12.34 is returned as
+     * 1234 for a field with scale 2.
+     * @param field the field index.
+     * @param element the array element.
+     * @return the unscaled value.
+     * @throws NumberFormatException if the field has more than 18 digits.
+     */
+    public long getUnscaled(int field, int element) {
+        getScale(field);
+        int len = elementSizes[field];
+        return BinaryCodedDecimal.unscaled(row, position(field, element, len), len);
+    }
+
+    public BigDecimal getBigDecimal(int field) {
+        return getBigDecimal(field, 0);
+    }
+
+    /**
+     * reads a BCD field of any length.
+     * @param field the field index.
+     * @param element the array element.
+     * @return the value.
+     */
+    public BigDecimal getBigDecimal(int field, int element) {
+        int scale = getScale(field);
+        int len = elementSizes[field];
+        return BinaryCodedDecimal.toBigDecimal(row, position(field, element, len), len, scale);
+    }
+
+    /**
+     * @param field the field index.
+     * @return true if the current record has no value for the DATE field.
+     */
+    public boolean isNull(int field) {
+        return isNull(field, 0);
+    }
+
+    public boolean isNull(int field, int element) {
+        return types[field] == 4 && PackedDateTime.isNull(leLong(position(field, element, 4)));
+    }
+
+    public int getEpochDay(int field) {
+        return getEpochDay(field, 0);
+    }
+
+    /**
+     * reads a DATE field as the number of days since 1970-01-01.
+     * @param field the field index.
+     * @param element the array element.
+     * @return the day, or 0 if the date is null (see isNull).
+     */
+    public int getEpochDay(int field, int element) {
+        if (types[field] != 4) {
+            throw wrongType(field, "a date");
+        }
+        int date = leLong(position(field, element, 4));
+        if (PackedDateTime.isNull(date)) {
+            return 0;
+        }
+        return PackedDateTime.epochDay(date);
+    }
+
+    public int getMinuteOfDay(int field) {
+        return getMinuteOfDay(field, 0);
+    }
+
+    /**
+     * reads a TIME field as the minute of the day.
+     * @param field the field index.
+     * @param element the array element.
+     * @return the minute of the day.
+     */
+    public int getMinuteOfDay(int field, int element) {
+        if (types[field] != 5) {
+            throw wrongType(field, "a time");
+        }
+        return PackedDateTime.minuteOfDay(leLong(position(field, element, 4)));
+    }
+
+    public String getString(int field) {
+        return getString(field, 0);
+    }
+
+    /**
+     * reads a STRING field.
+     * @param field the field index.
+     * @param element the array element.
+     * @return the string.
+     */
+    public String getString(int field, int element) {
+        int pos = stringStart(field, element);
+        return strings.decode(row, pos, stringLength(field, pos));
+    }
+
+    /**
+     * copies the bytes of a STRING field without decoding them.
+     * @param field the field index.
+     * @param target the array to copy into, which must be large enough.
+     * @param targetOfs the offset in the array.
+     * @return the number of bytes copied.
+     */
+    public int getBytes(int field, byte[] target, int targetOfs) {
+        return getBytes(field, 0, target, targetOfs);
+    }
+
+    public int getBytes(int field, int element, byte[] target, int targetOfs) {
+        int pos = stringStart(field, element);
+        int len = stringLength(field, pos);
+        System.arraycopy(row, pos, target, targetOfs, len);
+        return len;
+    }
+
+    private int stringStart(int field, int element) {
+        switch (types[field]) {
+        case 0x12:
+            return position(field, element, elementSizes[field]);
+        case 0x13:
+            return position(field, element, 0);
+        case 0x14:
+            return position(field, element, 1) + 1;
+        default:
+            throw wrongType(field, "a string");
+        }
+    }
+
+    private int stringLength(int field, int pos) {
+        int len;
+        switch (types[field]) {
+        case 0x12:
+            return strings.fixedLength(row, pos, elementSizes[field]);
+        case 0x13:
+            len = 0;
+            while (pos + len < recordLength && row[pos + len] != 0) {
+                len++;
+            }
+            if (pos + len >= recordLength) {
+                throw new ArrayIndexOutOfBoundsException("Array index out of range: " + (pos + len));
+            }
+            return len;
+        default:
+            len = row[pos - 1] & 0xFF;
+            if (pos + len > recordLength) {
+                throw new ArrayIndexOutOfBoundsException("Array index out of range: " + (pos + len));
+            }
+            return len;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.cad.tpsparse.tps.TpsFile.Visitor;
+
+/**
+ * Combines a number of consumers, such as RecordCollectors, so they can all be
+ * fed by a single pass over the blocks and pages of a TpsFile.
+ * 
+ * Only the records selected by at least one consumer are built. A record that
+ * is selected by more than one consumer is handed to each of them with its
+ * own position, so consumers do not disturb each other.
+ * 
+ * @author E.Hooijmeijer
+ */
+public class ScanPlan implements Visitor {
+
+    private final List<RecordFilter> filters = new ArrayList<>();
+    private final List<Visitor> visitors = new ArrayList<>();
+
+    /**
+     * registers a consumer.
+     * @param filter selects the records for the consumer.
+     * @param visitor the consumer.
+     * @return this.
+     */
+    public ScanPlan add(RecordFilter filter, Visitor visitor) {
+        filters.add(filter);
+        visitors.add(visitor);
+        return this;
+    }
+
+    /**
+     * registers a collector.
+     * @param collector the collector.
+     * @return the collector, to retrieve the result from after the scan.
+     */
+    public <C extends RecordCollector<?>> C add(C collector) {
+        add(collector.getFilter(), collector);
+        return collector;
+    }
+
+    /**
+     * @return a filter selecting the records of all consumers.
+     */
+    public RecordFilter getFilter() {
+        return RecordFilter.anyOf(filters);
+    }
+
+    public boolean isEmpty() {
+        return visitors.isEmpty();
+    }
+
+    @Override
+    public void onTpsRecord(TpsRecord record) {
+        boolean first = true;
+        for (int t = 0; t < visitors.size(); t++) {
+            if (filters.get(t).matches(record)) {
+                visitors.get(t).onTpsRecord(first ? record : new TpsRecord(record));
+                first = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import nl.cad.tpsparse.bin.StringDecoder;
+import nl.cad.tpsparse.tps.header.TableDefinitionHeader;
+import nl.cad.tpsparse.tps.record.TableDefinitionRecord;
+
+/**
+ * Collects the table definitions. For each table (there can be more than one,
+ * although one is most common) the table definition records are grouped
+ * together (as they're spread over multiple records) and then merged. From
+ * that the actual table definition is built.
+ * @author E.Hooijmeijer
+ */
+public class TableDefinitionCollector extends RecordCollector<Map<Integer, TableDefinitionRecord>> {
+
+    private final StringDecoder stringDecoder;
+    private final Map<Integer, List<TpsRecord>> tableDefs = new TreeMap<>();
+
+    public TableDefinitionCollector(Charset stringEncoding) {
+        this(new StringDecoder(stringEncoding));
+    }
+
+    public TableDefinitionCollector(StringDecoder stringDecoder) {
+        this.stringDecoder = stringDecoder;
+    }
+
+    @Override
+    public RecordFilter getFilter() {
+        return new RecordFilter(RecordFilter.TABLE_DEFINITION, RecordFilter.ANY);
+    }
+
+    @Override
+    public void onTpsRecord(TpsRecord record) {
+        if (record.getHeader() instanceof TableDefinitionHeader) {
+            int table = record.getHeader().getTableNumber();
+            int index = ((TableDefinitionHeader) record.getHeader()).getBlock();
+            if (tableDefs.get(table) == null) {
+                tableDefs.put(Integer.valueOf(table), new ArrayList<TpsRecord>());
+            }
+            while (tableDefs.get(table).size() <= index) {
+                tableDefs.get(table).add(null);
+            }
+            tableDefs.get(table).set(index, record);
+        }
+    }
+
+    @Override
+    public Map<Integer, TableDefinitionRecord> getResult() {
+        Map<Integer, TableDefinitionRecord> tables = new TreeMap<>();
+        for (Map.Entry<Integer, List<TpsRecord>> table : tableDefs.entrySet()) {
+            if (isComplete(table.getValue())) {
+                tables.put(table.getKey(), new TableDefinitionRecord(merge(table.getValue()), stringDecoder));
+            }
+        }
+        return tables;
+    }
+}
@@ -15,11 +15,12 @@
  */
 package nl.cad.tpsparse.tps;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 import nl.cad.tpsparse.bin.RandomAccess;
-import nl.cad.tpsparse.bin.RunLengthEncodingException;
 
 /**
  * A TpsBlock is the outermost container for data, it groups a number of TpsPages.
@@ -31,68 +32,142 @@ import nl.cad.tpsparse.bin.RunLengthEncodingException;
  * parsing the TpsPage and then seeking for the next TpsPage using its
  * offset in the file (always at a 0x0100 boundary and the value at that
  * address must have the same value as the offset). Far from perfect but
- * it seems to work.
+ * it seems to work. The candidate offsets are collected in a single pass
+ * over the block, so each boundary is only examined once.
+ * 
+ * Only the page headers are kept, in a table of primitive arrays. TpsPages are
+ * created when they are requested and can be discarded after use.
  * 
  * @author E.Hooijmeijer
  */
 public class TpsBlock {
 
-    private List<TpsPage> pages = new ArrayList<TpsPage>();
-    private int start;
-    private int end;
     private RandomAccess rx;
+    private long start;
+    private long end;
+    private boolean ignorePageErrors;
+
+    private int pageCount;
+    private long[] pageOffset = new long[16];
+    private int[] pageSize = new int[16];
+    private int[] pageSizeUncompressed = new int[16];
+    private int[] pageSizeUncompressedWithoutHeader = new int[16];
+    private int[] recordCount = new int[16];
+    private byte[] flags = new byte[16];
 
-    public TpsBlock(RandomAccess rx, int start, int end, boolean ignorePageErrors) {
+    /**
+     * constructs a TpsBlock by scanning for its pages.
+     * @param rx the file.
+     * @param start the start of the block.
+     * @param end the end of the block.
+     * @param ignorePageErrors skips pages that extend beyond the end of the
+     * file, and treats pages that cannot be decompressed as empty.
+     */
+    public TpsBlock(RandomAccess rx, long start, long end, boolean ignorePageErrors) {
         this.rx = rx;
         this.start = start;
         this.end = end;
-        rx.pushPosition();
-        rx.jumpAbs(start);
+        this.ignorePageErrors = ignorePageErrors;
+        BitSet markers = scanPageMarkers();
+        // Some blocks are 0 length, they should be skipped.
+        long pos = start;
+        while (pos < end) {
+            int size = (isCompletePage(markers, pos) ? tryAddPage(pos) : 0);
+            if (size > 0) {
+                pos += size;
+            } else {
+                pos += 0x0100;
+            }
+            pos = nextPage(markers, pos);
+        }
+    }
+
+    /**
+     * constructs a TpsBlock from previously discovered page offsets, skipping the scan.
+     * @param rx the file.
+     * @param start the start of the block.
+     * @param end the end of the block.
+     * @param pageOffsets the absolute offsets of the pages in the block.
+     * @param ignorePageErrors ignores pages that cannot be read.
+     */
+    public TpsBlock(RandomAccess rx, long start, long end, long[] pageOffsets, boolean ignorePageErrors) {
+        this.rx = rx;
+        this.start = start;
+        this.end = end;
+        this.ignorePageErrors = ignorePageErrors;
+        for (long ofs : pageOffsets) {
+            tryAddPage(ofs);
+        }
+    }
+
+    /**
+     * adds the page at the given offset, unless it cannot be read and page
+     * errors are ignored.
+     * @return the size of the page, or 0 if it was skipped.
+     */
+    private int tryAddPage(long ofs) {
         try {
-            // Some blocks are 0 length, they should be skipped.
-            while (rx.position() < end) {
-                if (isCompletePage()) {
-                    try {
-                        TpsPage page = new TpsPage(rx);
-                        pages.add(page);
-                    } catch (RunLengthEncodingException ex) {
-                        if (ignorePageErrors) {
-                            System.err.println("Ignored : " + ex.getMessage());
-                        } else {
-                            throw ex;
-                        }
-                    }
-                } else {
-                    rx.jumpRel(0x0100);
-                }
-                navigateToNextPage(rx);
+            return addPage(ofs);
+        } catch (RuntimeException ex) {
+            if (ignorePageErrors) {
+                System.err.println("Ignored : " + ex.getMessage());
+                return 0;
             }
-        } finally {
-            rx.popPosition();
+            throw ex;
         }
     }
 
-    private void navigateToNextPage(RandomAccess rx) {
-        if ((rx.position() & 0xFF) == 0x00) {
-            // Actually we might be already at a new page.
-        } else {
-            // Jump to the next probable page.
-            rx.jumpAbs((rx.position() & 0xFFFFFF00) + 0x0100);
+    /**
+     * adds the page header at the given offset to the page table.
+     * @return the size of the page.
+     */
+    private int addPage(long ofs) {
+        int size = rx.peekLeShort(ofs + 4);
+        if (ofs + size > rx.length()) {
+            throw new ArrayIndexOutOfBoundsException("Array index out of range: " + (ofs + size));
+        }
+        if (pageCount == pageOffset.length) {
+            int capacity = pageCount * 2;
+            pageOffset = Arrays.copyOf(pageOffset, capacity);
+            pageSize = Arrays.copyOf(pageSize, capacity);
+            pageSizeUncompressed = Arrays.copyOf(pageSizeUncompressed, capacity);
+            pageSizeUncompressedWithoutHeader = Arrays.copyOf(pageSizeUncompressedWithoutHeader, capacity);
+            recordCount = Arrays.copyOf(recordCount, capacity);
+            flags = Arrays.copyOf(flags, capacity);
         }
-        int addr = 0;
-        if (!rx.isAtEnd()) {
-            do {
-                rx.pushPosition();
-                addr = rx.leLong();
-                rx.popPosition();
-                // check if there is really a page here.
-                // if so, the offset in the file must match the value.
-                // if not, we continue.
-                if (addr != rx.position()) {
-                    rx.jumpRel(0x0100);
-                }
-            } while ((addr != rx.position()) && !rx.isAtEnd());
+        pageOffset[pageCount] = ofs;
+        pageSize[pageCount] = size;
+        pageSizeUncompressed[pageCount] = rx.peekLeShort(ofs + 6);
+        pageSizeUncompressedWithoutHeader[pageCount] = rx.peekLeShort(ofs + 8);
+        recordCount[pageCount] = rx.peekLeShort(ofs + 10);
+        flags[pageCount] = (byte) rx.peekLeByte(ofs + 12);
+        pageCount++;
+        return size;
+    }
+
+    /**
+     * scans the block once, marking every 0x0100 boundary that holds its own
+     * offset, which is where a page may start. The scan extends up to 64K past
+     * the end of the block as the last page may extend beyond it.
+     * @return the markers, indexed by (offset - start) / 0x0100.
+     */
+    private BitSet scanPageMarkers() {
+        long limit = Math.min(end + 0x10000, rx.length());
+        BitSet markers = new BitSet();
+        for (long pos = start; pos + 4 <= limit; pos += 0x0100) {
+            if (rx.peekLeULong(pos) == pos) {
+                markers.set((int) ((pos - start) >> 8));
+            }
         }
+        return markers;
+    }
+
+    /**
+     * @return the offset of the first page at or after pos, or the end of the block if there is none.
+     */
+    private long nextPage(BitSet markers, long pos) {
+        int idx = markers.nextSetBit((int) ((pos - start + 0xFF) >> 8));
+        return idx < 0 ? end : start + ((long) idx << 8);
     }
 
     /**
@@ -100,56 +175,99 @@ public class TpsBlock {
      * This results in a RLE exception. This function checks if the page is complete (was not
      * partially overwritten) by checking there are no other start of blocks within the area
      * of the block.
-     * @return true if there is a complete page at the current position.
+     * @return true if there is a complete page at the given position.
      */
-    private boolean isCompletePage() {
-        int pageSize;
-        rx.pushPosition();
-        try {
-            rx.leLong();
-            pageSize = rx.leShort();
-        } finally {
-            rx.popPosition();
-        }
-        rx.pushPosition();
-        try {
-            int ofs = 0;
-            while (ofs < pageSize) {
-                ofs += 0x0100;
-                rx.jumpRel(0x0100);
-                if (ofs < pageSize) {
-                    int addr;
-                    rx.pushPosition();
-                    try {
-                        addr = rx.leLong();
-                    } finally {
-                        rx.popPosition();
-                    }
-                    if (addr == rx.position()) {
-                        System.out.println("Incomplete Page");
-                        return false;
-                    }
-                }
-            }
-        } finally {
-            rx.popPosition();
+    private boolean isCompletePage(BitSet markers, long pos) {
+        int pageSize = rx.peekLeShort(pos + 4);
+        int first = (int) ((pos - start) >> 8) + 1;
+        int last = (int) ((pos - start + pageSize - 1) >> 8);
+        int idx = markers.nextSetBit(first);
+        if (idx >= 0 && idx <= last) {
+            System.out.println("Incomplete Page");
+            return false;
         }
         return true;
     }
 
+    /**
+     * pages are created on demand, so there is nothing left to flush.
+     */
     public void flush() {
-        for (TpsPage page : getPages()) {
-            page.flush();
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * creates the TpsPage at the given index in this block.
+     * @param index the index.
+     * @return a new TpsPage.
+     */
+    public TpsPage getPage(int index) {
+        if (index < 0 || index >= pageCount) {
+            throw new IndexOutOfBoundsException("Page " + index + " of " + pageCount);
         }
+        long ofs = pageOffset[index];
+        TpsPage page = new TpsPage(rx.view(ofs + 13, pageSize[index] - 13), ofs, rx.peekLeULong(ofs), pageSize[index], pageSizeUncompressed[index],
+                pageSizeUncompressedWithoutHeader[index], recordCount[index], flags[index] & 0xFF);
+        page.setIgnoreErrors(ignorePageErrors);
+        return page;
+    }
+
+    /**
+     * @return the offset in the file of the page at the given index.
+     */
+    public long getPageOffset(int index) {
+        return pageOffset[index];
+    }
+
+    public int getPageSize(int index) {
+        return pageSize[index];
+    }
+
+    /**
+     * @return the flags of the page at the given index.
+     */
+    public int getPageFlags(int index) {
+        return flags[index] & 0xFF;
+    }
+
+    /**
+     * @return the number of records in the page at the given index, as stored in its header.
+     */
+    public int getRecordCount(int index) {
+        return recordCount[index];
     }
 
+    /**
+     * @return the pages in this block, each created when it is retrieved.
+     */
     public List<TpsPage> getPages() {
-        return pages;
+        return new AbstractList<TpsPage>() {
+            @Override
+            public TpsPage get(int index) {
+                return getPage(index);
+            }
+
+            @Override
+            public int size() {
+                return pageCount;
+            }
+        };
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
     }
 
     @Override
     public String toString() {
-        return "TpsBlock(" + rx.toHex8(start) + ".." + rx.toHex8(end) + "," + pages.size() + ")";
+        return "TpsBlock(" + rx.toHex8(start) + ".." + rx.toHex8(end) + "," + pageCount + ")";
     }
 
 }
@@ -15,29 +15,38 @@
  */
 package nl.cad.tpsparse.tps;
 
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import nl.cad.tpsparse.bin.ByteSource;
 import nl.cad.tpsparse.bin.RandomAccess;
+import nl.cad.tpsparse.bin.StringDecoder;
 import nl.cad.tpsparse.decrypt.Key;
-import nl.cad.tpsparse.tps.header.AbstractHeader;
-import nl.cad.tpsparse.tps.header.DataHeader;
-import nl.cad.tpsparse.tps.header.IndexHeader;
-import nl.cad.tpsparse.tps.header.MemoHeader;
 import nl.cad.tpsparse.tps.header.MetadataHeader;
-import nl.cad.tpsparse.tps.header.TableDefinitionHeader;
 import nl.cad.tpsparse.tps.header.TableNameHeader;
 import nl.cad.tpsparse.tps.record.DataRecord;
 import nl.cad.tpsparse.tps.record.IndexRecord;
 import nl.cad.tpsparse.tps.record.MemoRecord;
+import nl.cad.tpsparse.tps.record.Projection;
+import nl.cad.tpsparse.tps.record.RowPredicate;
 import nl.cad.tpsparse.tps.record.TableDefinitionRecord;
 import nl.cad.tpsparse.tps.record.TableNameRecord;
 import nl.cad.tpsparse.util.Utils;
@@ -69,7 +78,7 @@ import nl.cad.tpsparse.util.Utils;
  * 
  * @author E.Hooijmeijer
  */
-public class TpsFile {
+public class TpsFile implements Closeable {
 
     /**
      * used to traverse the Block,Page,Record hierarchy.
@@ -96,24 +105,60 @@ public class TpsFile {
 
     private RandomAccess read;
     private Charset stringEncoding = Charset.forName("ISO-8859-1");
+    private boolean trimStrings;
+    private int stringDictionarySize;
+    private PageIndex pageIndex;
+    private ForkJoinPool pool;
+    private PageCache pageCache;
+    private boolean ordered = true;
 
     /**
-     * constructs a new TpsFile from the given file.
+     * constructs a new TpsFile from the given file. Files larger than 2GB
+     * are memory mapped.
      * @param file the file.
      * @throws IOException when reading the file fails.
      */
     public TpsFile(File file) throws IOException {
-        this(Utils.readFully(file));
+        this(file, false);
     }
 
     /**
-     * constructs a new TpsFile from the given file.
+     * constructs a new TpsFile from the given file. Files larger than 2GB
+     * are memory mapped.
      * @param file the file.
      * @param owner the owner id, also known as the password.
      * @throws IOException when reading the file fails.
      */
     public TpsFile(File file, String owner) throws IOException {
-        this(Utils.readFully(file), owner);
+        this(file, owner, false);
+    }
+
+    /**
+     * constructs a new TpsFile from the given file, optionally by mapping it
+     * into memory instead of reading it onto the heap. Mapping is preferable
+     * for large files, as pages are only loaded when they are accessed. Files
+     * larger than 2GB are always mapped.
+     * @param file the file.
+     * @param map true to memory map the file.
+     * @throws IOException when reading the file fails.
+     */
+    public TpsFile(File file, boolean map) throws IOException {
+        this(map || Utils.exceedsArraySize(file) ? new RandomAccess(Utils.map(file, false)) : new RandomAccess(Utils.readFully(file)));
+    }
+
+    /**
+     * constructs a new TpsFile from the given file, optionally by mapping it
+     * into memory instead of reading it onto the heap. The mapping is private
+     * so decrypting it does not alter the file. Files larger than 2GB are
+     * always mapped. A read-only file cannot be mapped privately and is read
+     * onto the heap instead.
+     * @param file the file.
+     * @param owner the owner id, also known as the password.
+     * @param map true to memory map the file.
+     * @throws IOException when reading the file fails.
+     */
+    public TpsFile(File file, String owner, boolean map) throws IOException {
+        this(map || Utils.exceedsArraySize(file) ? new RandomAccess(Utils.map(file, true)) : new RandomAccess(Utils.readFully(file)), owner);
     }
 
     /**
@@ -149,22 +194,42 @@ public class TpsFile {
      * @param data the byte array.
      */
     public TpsFile(byte[] data, String owner) {
+        this(new RandomAccess(data), owner);
+    }
+
+    /**
+     * constructs a new TpsFile from the given RandomAccess, which is decrypted
+     * in place.
+     * @param read the RandomAccess.
+     * @param owner the owner id, also known as the password.
+     */
+    public TpsFile(RandomAccess read, String owner) {
         Key key = new Key(owner).init();
-        key.decrypt(data, 0, 0x200);
-        this.read = new RandomAccess(data);
+        key.decrypt(read, 0, 0x200);
+        this.read = read;
         TpsHeader hdr = getHeader();
         for (int t = 0; t < hdr.getPageStart().length; t++) {
-            int ofs = hdr.getPageStart()[t];
-            int end = hdr.getPageEnd()[t];
+            long ofs = hdr.getPageStart()[t];
+            long end = hdr.getPageEnd()[t];
             //
             if (((ofs == 0x0200) && (end == 0x200)) || (ofs >= read.length())) {
                 continue;
             } else {
-                key.decrypt(data, ofs, end - ofs);
+                key.decrypt(read, ofs, end - ofs);
             }
         }
     }
 
+    /**
+     * constructs a new TpsFile on top of the given ByteSource, for example a
+     * ChannelByteSource to read a file that should neither be loaded onto the
+     * heap nor be mapped.
+     * @param source the source.
+     */
+    public TpsFile(ByteSource source) {
+        this(new RandomAccess(source));
+    }
+
     /**
      * constructs a new TpsFile from the given RandomAccess.
      * @param read the RandomAccess.
@@ -182,6 +247,104 @@ public class TpsFile {
         this.stringEncoding = stringEncoding;
     }
 
+    /**
+     * removes the trailing spaces of fixed length strings in the table
+     * definitions retrieved after this call.
+     * @param trimStrings true to trim.
+     */
+    public void setTrimStrings(boolean trimStrings) {
+        this.trimStrings = trimStrings;
+    }
+
+    public boolean isTrimStrings() {
+        return trimStrings;
+    }
+
+    /**
+     * shares the String instances of string columns with few distinct
+     * values, which saves a lot of memory when rows are buffered.
+     * @param stringDictionarySize the maximum number of distinct values per column, 0 to disable.
+     */
+    public void setStringDictionarySize(int stringDictionarySize) {
+        this.stringDictionarySize = stringDictionarySize;
+    }
+
+    public int getStringDictionarySize() {
+        return stringDictionarySize;
+    }
+
+    /**
+     * sets the page index to use. Blocks that are present in the index are not
+     * scanned for pages, their pages are read at the indexed offsets instead.
+     * @param pageIndex the page index, or null to scan all blocks.
+     */
+    public void setPageIndex(PageIndex pageIndex) {
+        this.pageIndex = pageIndex;
+    }
+
+    public PageIndex getPageIndex() {
+        return pageIndex;
+    }
+
+    /**
+     * sets the cache to keep parsed pages in between visits. As most queries
+     * visit the whole file, a cache large enough to hold the file saves
+     * decompressing and parsing each page again for each query.
+     * @param pageCache the cache, or null to parse the pages on each visit.
+     */
+    public void setPageCache(PageCache pageCache) {
+        this.pageCache = pageCache;
+    }
+
+    public PageCache getPageCache() {
+        return pageCache;
+    }
+
+    /**
+     * sets the number of threads used to discover the pages in the blocks and
+     * to decompress and parse the pages during visits. The blocks and pages are
+     * independent, so they are processed concurrently. The blocks are still
+     * returned in file order and visitors are always called on the calling
+     * thread.
+     * @param parallelism the number of threads, 1 to do everything on the calling thread.
+     */
+    public void setParallelism(int parallelism) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        pool = (parallelism > 1 ? new ForkJoinPool(parallelism) : null);
+    }
+
+    /**
+     * shuts down the threads started by setParallelism. The file itself is
+     * in memory or mapped, so it can still be read afterwards, but only on
+     * the calling thread.
+     */
+    @Override
+    public void close() {
+        setParallelism(1);
+    }
+
+    /**
+     * when visiting in parallel the records are by default handed to the
+     * visitor in file order. Without ordering the records of each page are
+     * handed over as soon as the page is parsed, which keeps all workers busy
+     * when some pages take longer than others. The records of a single page
+     * are always in order.
+     * @param ordered false to receive the pages in any order.
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    RandomAccess getRandomAccess() {
+        return read;
+    }
+
     /**
      * reads the header.
      * @return the header.
@@ -200,23 +363,43 @@ public class TpsFile {
      * @param ignoreErrors ignores any parse errors in the record (risky!).
      * @return the TpsBlocks in the file.
      */
-    public List<TpsBlock> getTpsBlocks(boolean ignoreErrors) {
+    public List<TpsBlock> getTpsBlocks(final boolean ignoreErrors) {
         TpsHeader hdr = getHeader();
         List<TpsBlock> results = new ArrayList<>();
+        List<ForkJoinTask<TpsBlock>> tasks = new ArrayList<>();
         for (int t = 0; t < hdr.getPageStart().length; t++) {
-            int ofs = hdr.getPageStart()[t];
-            int end = hdr.getPageEnd()[t];
+            final long ofs = hdr.getPageStart()[t];
+            final long end = hdr.getPageEnd()[t];
             // Skips the first entry (0 length) and any blocks that are beyond
             // the file size.
             if (((ofs == 0x0200) && (end == 0x200)) || (ofs >= read.length())) {
                 continue;
+            } else if (pool == null) {
+                results.add(readBlock(read, ofs, end, ignoreErrors));
             } else {
-                results.add(new TpsBlock(read, ofs, end, ignoreErrors));
+                tasks.add(pool.submit(new Callable<TpsBlock>() {
+                    @Override
+                    public TpsBlock call() {
+                        return readBlock(read.duplicate(), ofs, end, ignoreErrors);
+                    }
+                }));
             }
         }
+        for (ForkJoinTask<TpsBlock> task : tasks) {
+            results.add(task.join());
+        }
         return results;
     }
 
+    private TpsBlock readBlock(RandomAccess rx, long ofs, long end, boolean ignoreErrors) {
+        long[] pages = (pageIndex == null ? null : pageIndex.getPageOffsets(ofs, end));
+        if (pages != null) {
+            return new TpsBlock(rx, ofs, end, pages, ignoreErrors);
+        } else {
+            return new TpsBlock(rx, ofs, end, ignoreErrors);
+        }
+    }
+
     /**
      * visits all the TpsRecords in the file by traversing the Block, Page and
      * Record hierarchy.
@@ -233,10 +416,36 @@ public class TpsFile {
      * @param ignoreErrors ignores any page parse errors (at your own peril!).
      */
     public void visit(Visitor v, boolean ignoreErrors) {
+        if (pool != null) {
+            visitParallel(v, null, ignoreErrors);
+            return;
+        }
+        for (TpsBlock data : this.getTpsBlocks(ignoreErrors)) {
+            for (TpsPage page : data.getPages()) {
+                for (TpsRecord record : getRecords(page)) {
+                    v.onTpsRecord(record);
+                }
+                page.flush();
+            }
+        }
+    }
+
+    /**
+     * visits the TpsRecords selected by the filter. Records that are not
+     * selected are skipped by looking at their raw header bytes, without
+     * building a TpsRecord or header for them.
+     * @param v the visitor.
+     * @param filter selects the records by type and table.
+     * @param ignoreErrors ignores any page parse errors (at your own peril!).
+     */
+    public void visit(Visitor v, RecordFilter filter, boolean ignoreErrors) {
+        if (pool != null) {
+            visitParallel(v, filter, ignoreErrors);
+            return;
+        }
         for (TpsBlock data : this.getTpsBlocks(ignoreErrors)) {
             for (TpsPage page : data.getPages()) {
-                page.parseRecords();
-                for (TpsRecord record : page.getRecords()) {
+                for (TpsRecord record : getRecords(page, filter)) {
                     v.onTpsRecord(record);
                 }
                 page.flush();
@@ -244,6 +453,87 @@ public class TpsFile {
         }
     }
 
+    /**
+     * decompresses and parses the pages on the pool, handing the records to
+     * the visitor on the calling thread. At most a few pages per thread are
+     * in flight, so a slow visitor does not cause the whole file to be
+     * decompressed in memory.
+     * @param v the visitor.
+     * @param filter selects the records, null for all records.
+     * @param ignoreErrors ignores any page parse errors.
+     */
+    private void visitParallel(Visitor v, final RecordFilter filter, boolean ignoreErrors) {
+        int window = pool.getParallelism() * 4;
+        ArrayDeque<Future<List<TpsRecord>>> inOrder = new ArrayDeque<>();
+        CompletionService<List<TpsRecord>> completed = new ExecutorCompletionService<>(pool);
+        // the unordered tasks in flight, so they can be cancelled when a page or the visitor fails.
+        Set<Future<List<TpsRecord>>> unordered = new HashSet<>();
+        try {
+            for (TpsBlock data : this.getTpsBlocks(ignoreErrors)) {
+                for (int t = 0; t < data.getPageCount(); t++) {
+                    final TpsPage page = data.getPage(t);
+                    Callable<List<TpsRecord>> task = new Callable<List<TpsRecord>>() {
+                        @Override
+                        public List<TpsRecord> call() {
+                            List<TpsRecord> records = new ArrayList<>(filter == null ? getRecords(page) : getRecords(page, filter));
+                            page.flush();
+                            return records;
+                        }
+                    };
+                    if (ordered) {
+                        inOrder.add(pool.submit(task));
+                        if (inOrder.size() >= window) {
+                            deliver(v, inOrder.poll());
+                        }
+                    } else {
+                        unordered.add(completed.submit(task));
+                        if (unordered.size() >= window) {
+                            deliverCompleted(v, completed, unordered);
+                        }
+                    }
+                }
+            }
+            while (!inOrder.isEmpty()) {
+                deliver(v, inOrder.poll());
+            }
+            while (!unordered.isEmpty()) {
+                deliverCompleted(v, completed, unordered);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while visiting pages.", ex);
+        } finally {
+            for (Future<List<TpsRecord>> f : inOrder) {
+                f.cancel(false);
+            }
+            for (Future<List<TpsRecord>> f : unordered) {
+                f.cancel(false);
+            }
+        }
+    }
+
+    private void deliverCompleted(Visitor v, CompletionService<List<TpsRecord>> completed, Set<Future<List<TpsRecord>>> unordered)
+            throws InterruptedException {
+        Future<List<TpsRecord>> page = completed.take();
+        unordered.remove(page);
+        deliver(v, page);
+    }
+
+    private void deliver(Visitor v, Future<List<TpsRecord>> page) throws InterruptedException {
+        List<TpsRecord> records;
+        try {
+            records = page.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+        for (TpsRecord record : records) {
+            v.onTpsRecord(record);
+        }
+    }
+
     /**
      * visits the hierarchy with callbacks for each type.
      * @param dv the detail visitor.
@@ -253,8 +543,7 @@ public class TpsFile {
             dv.onStartBlock(data);
             for (TpsPage page : data.getPages()) {
                 dv.onStartPage(page);
-                page.parseRecords();
-                for (TpsRecord record : page.getRecords()) {
+                for (TpsRecord record : getRecords(page)) {
                     dv.onTpsRecord(data, page, record);
                 }
                 page.flush();
@@ -262,6 +551,59 @@ public class TpsFile {
         }
     }
 
+    /**
+     * parses the records of a page, or takes them from the page cache.
+     * @param page the page.
+     * @return the records.
+     */
+    private List<TpsRecord> getRecords(TpsPage page) {
+        List<TpsRecord> records = (pageCache == null ? null : pageCache.get(page.getOffset()));
+        if (records == null) {
+            page.parseRecords();
+            records = page.getRecords();
+            if (pageCache != null) {
+                pageCache.put(page.getOffset(), records, page.isCompressed() ? page.getUncompressedData().length() : 0);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * creates the page at the given offset, which must have been found by
+     * scanning the blocks before.
+     * @param offset the offset of the page.
+     * @param ignoreErrors treats a page that cannot be decompressed as empty.
+     * @return the page.
+     */
+    TpsPage getPageAt(long offset, boolean ignoreErrors) {
+        TpsPage page = TpsPage.at(read, offset);
+        page.setIgnoreErrors(ignoreErrors);
+        return page;
+    }
+
+    /**
+     * parses the records of a page selected by the filter, or takes them from
+     * the page cache.
+     * @param page the page.
+     * @param filter the filter.
+     * @return the records.
+     */
+    List<TpsRecord> getRecords(TpsPage page, RecordFilter filter) {
+        if (pageCache == null) {
+            return page.getRecords(filter);
+        }
+        List<TpsRecord> records = pageCache.get(page.getOffset(), filter);
+        if (records == null) {
+            records = new ArrayList<>();
+            for (TpsRecord record : getRecords(page)) {
+                if (filter.matches(record)) {
+                    records.add(record);
+                }
+            }
+        }
+        return records;
+    }
+
     /**
      * retrieves all data records for the given table and table definition.
      * @param table the table number.
@@ -269,19 +611,62 @@ public class TpsFile {
      * @param ignoreErrors skips pages with errors.
      * @return a list of records.
      */
-    public List<DataRecord> getDataRecords(final int table, final TableDefinitionRecord def, boolean ignoreErrors) {
-        final List<DataRecord> results = new ArrayList<>();
-        visit(new Visitor() {
-            @Override
-            public void onTpsRecord(TpsRecord record) {
-                if (record.getHeader() instanceof DataHeader) {
-                    if (record.getHeader().getTableNumber() == table) {
-                        results.add(new DataRecord(record, def));
-                    }
-                }
-            }
-        }, ignoreErrors);
-        return results;
+    public List<DataRecord> getDataRecords(int table, TableDefinitionRecord def, boolean ignoreErrors) {
+        return collect(new DataRecordCollector(table, def), ignoreErrors);
+    }
+
+    /**
+     * retrieves the data records for the given table, decoding only the
+     * fields selected by the projection.
+     * @param table the table number.
+     * @param def the table definition.
+     * @param projection the fields to decode.
+     * @param ignoreErrors skips pages with errors.
+     * @return a list of records.
+     */
+    public List<DataRecord> getDataRecords(int table, TableDefinitionRecord def, Projection projection, boolean ignoreErrors) {
+        return collect(new DataRecordCollector(table, def, projection), ignoreErrors);
+    }
+
+    /**
+     * retrieves the data records for the given table that match the
+     * predicate. The predicate is checked on the raw record bytes, so rows
+     * that do not match are never decoded.
+     * @param table the table number.
+     * @param def the table definition.
+     * @param projection the fields to decode, null for all fields.
+     * @param predicate the rows to retrieve.
+     * @param ignoreErrors skips pages with errors.
+     * @return a list of records.
+     */
+    public List<DataRecord> getDataRecords(int table, TableDefinitionRecord def, Projection projection, RowPredicate predicate, boolean ignoreErrors) {
+        return collect(new DataRecordCollector(table, def, projection, predicate), ignoreErrors);
+    }
+
+    /**
+     * streams the data records for the given table and table definition. The
+     * pages are decompressed and parsed while the stream is consumed, so the
+     * table is never held in memory as a whole. The stream splits on page
+     * boundaries and can be processed in parallel.
+     * @param table the table number.
+     * @param def the table definition.
+     * @param ignoreErrors skips pages with errors.
+     * @return a lazy stream of records in file order.
+     */
+    public Stream<DataRecord> streamDataRecords(int table, TableDefinitionRecord def, boolean ignoreErrors) {
+        return StreamSupport.stream(new DataRecordSpliterator(this, getTpsBlocks(ignoreErrors), table, def), false);
+    }
+
+    /**
+     * opens a cursor over the data records of the given table, which reads
+     * the fields of each record without creating objects per row.
+     * @param table the table number.
+     * @param def the table definition.
+     * @param ignoreErrors skips pages with errors.
+     * @return the cursor, positioned before the first record.
+     */
+    public RowCursor openRowCursor(int table, TableDefinitionRecord def, boolean ignoreErrors) {
+        return new RowCursor(getTpsBlocks(ignoreErrors), table, def);
     }
 
     /**
@@ -296,7 +681,7 @@ public class TpsFile {
                     results.add(new TableNameRecord(record));
                 }
             }
-        });
+        }, new RecordFilter(RecordFilter.TABLE_NAME, RecordFilter.ANY), false);
         return results;
     }
 
@@ -306,20 +691,8 @@ public class TpsFile {
      * @param index the index.
      * @return all index records for the given table and index.
      */
-    public List<IndexRecord> getIndexes(final int table, final int index) {
-        final List<IndexRecord> results = new ArrayList<>();
-        visit(new Visitor() {
-            @Override
-            public void onTpsRecord(TpsRecord record) {
-                if (record.getHeader() instanceof IndexHeader) {
-                    IndexHeader idxHdr = (IndexHeader) record.getHeader();
-                    if (idxHdr.getTableNumber() == table && (idxHdr.getIndexNumber() == index || index == -1)) {
-                        results.add(new IndexRecord(record));
-                    }
-                }
-            }
-        });
-        return results;
+    public List<IndexRecord> getIndexes(int table, int index) {
+        return collect(new IndexCollector(table, index), false);
     }
 
     /**
@@ -329,12 +702,9 @@ public class TpsFile {
      * @return the list of ids.
      */
     public List<Integer> getIndexRecordIds(int table, int index) {
-        List<IndexRecord> idx = getIndexes(table, index);
-        List<Integer> results = new ArrayList<>();
-        for (IndexRecord i : idx) {
-            results.add(i.getRecordNumber());
-        }
-        return results;
+        IndexCollector collector = new IndexCollector(table, index);
+        collect(collector, false);
+        return collector.getRecordIds();
     }
 
     /**
@@ -354,7 +724,7 @@ public class TpsFile {
                     }
                 }
             }
-        });
+        }, new RecordFilter(RecordFilter.METADATA, table), false);
         return results;
     }
 
@@ -382,48 +752,26 @@ public class TpsFile {
      * @param ignoreErrors ignores any page parse errors.
      * @return the memo records.
      */
-    public Map<Integer, MemoRecord> getMemoRecords(final int tableNr, final int memoIdx, boolean ignoreErrors) {
-        final Map<Integer, List<TpsRecord>> memoGroups = new TreeMap<>();
-        this.visit(new Visitor() {
-            @Override
-            public void onTpsRecord(TpsRecord record) {
-                if (record.getHeader() instanceof MemoHeader) {
-                    MemoHeader hdr = (MemoHeader) record.getHeader();
-                    if (hdr.isApplicable(tableNr, memoIdx)) {
-                        if (memoGroups.get(hdr.getOwningRecord()) == null) {
-                            memoGroups.put(Integer.valueOf(hdr.getOwningRecord()), new ArrayList<TpsRecord>());
-                        }
-                        while (memoGroups.get(hdr.getOwningRecord()).size() <= hdr.getSequenceNr()) {
-                            memoGroups.get(hdr.getOwningRecord()).add(null);
-                        }
-                        memoGroups.get(hdr.getOwningRecord()).set(hdr.getSequenceNr(), record);
-                    }
-                }
-            }
-        }, ignoreErrors);
-        Map<Integer, MemoRecord> memos = new HashMap<>();
-        for (Map.Entry<Integer, List<TpsRecord>> memoGroup : memoGroups.entrySet()) {
-            if (isComplete(memoGroup.getValue())) {
-                AbstractHeader header = memoGroup.getValue().get(0).getHeader();
-                MemoRecord memorecord = new MemoRecord(header, merge(memoGroup.getValue()));
-                memos.put(memorecord.getOwner(), memorecord);
-            }
-        }
-        return memos;
+    public Map<Integer, MemoRecord> getMemoRecords(int tableNr, int memoIdx, boolean ignoreErrors) {
+        return collect(new MemoCollector(tableNr, memoIdx), ignoreErrors);
     }
 
     /**
-     * checks if the record set is complete.
-     * @param values the the record set.
-     * @return true if all records are there.
+     * indexes the memo records of the given memo fields, without keeping
+     * their contents. The memos are read from the file when they are fetched
+     * from the index, which keeps the memory use low for tables with large
+     * memos.
+     * @param tableNr the table number.
+     * @param memoIdxs the memo indexes (zero based).
+     * @param ignoreErrors ignores any page parse errors.
+     * @return an index per memo field, in the order of the memo indexes.
      */
-    private boolean isComplete(List<TpsRecord> values) {
-        for (TpsRecord value : values) {
-            if (value == null) {
-                return false;
-            }
+    public List<MemoIndex> getMemoIndexes(int tableNr, int[] memoIdxs, boolean ignoreErrors) {
+        MemoIndexCollector collector = new MemoIndexCollector(this, tableNr, memoIdxs, ignoreErrors);
+        if (collector.isEmpty()) {
+            return collector.getResult();
         }
-        return true;
+        return collect(collector, ignoreErrors);
     }
 
     /**
@@ -434,48 +782,38 @@ public class TpsFile {
      * @param ignoreErrors ignores any errors.
      * @return the table definitions.
      */
-    public Map<Integer, TableDefinitionRecord> getTableDefinitions(final boolean ignoreErrors) {
-        final Map<Integer, List<TpsRecord>> tableDefs = new TreeMap<>();
-        this.visit(new Visitor() {
-            @Override
-            public void onTpsRecord(TpsRecord record) {
-                if (record.getHeader() instanceof TableDefinitionHeader) {
-                    int table = record.getHeader().getTableNumber();
-                    int index = ((TableDefinitionHeader) record.getHeader()).getBlock();
-                    if (tableDefs.get(table) == null) {
-                        tableDefs.put(Integer.valueOf(table), new ArrayList<TpsRecord>());
-                    }
-                    while (tableDefs.get(table).size() <= index) {
-                        tableDefs.get(table).add(null);
-                    }
-                    tableDefs.get(table).set(index, record);
-                }
-            }
-        }, ignoreErrors);
-        Map<Integer, TableDefinitionRecord> tables = new TreeMap<>();
-        for (Map.Entry<Integer, List<TpsRecord>> table : tableDefs.entrySet()) {
-            if (isComplete(table.getValue())) {
-                tables.put(table.getKey(), new TableDefinitionRecord(merge(table.getValue()), stringEncoding));
-            }
-        }
-        return tables;
+    public Map<Integer, TableDefinitionRecord> getTableDefinitions(boolean ignoreErrors) {
+        return collect(newTableDefinitionCollector(), ignoreErrors);
     }
 
     /**
-     * merges the payload of a number of TpsRecords into one.
-     * @param records the records.
-     * @return the merged records.
+     * creates a collector for the table definitions, using the string encoding of this file.
+     * @return the collector.
      */
-    private RandomAccess merge(List<TpsRecord> records) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        for (TpsRecord rec : records) {
-            try {
-                out.write(rec.getData().remainder());
-            } catch (IOException ex) {
-                throw new RuntimeException("Error while merging TpsRecords", ex);
-            }
+    public TableDefinitionCollector newTableDefinitionCollector() {
+        return new TableDefinitionCollector(new StringDecoder(stringEncoding, trimStrings, stringDictionarySize));
+    }
+
+    /**
+     * runs a single collector over the file.
+     * @param collector the collector.
+     * @param ignoreErrors ignores any page parse errors.
+     * @return the result of the collector.
+     */
+    public <T> T collect(RecordCollector<T> collector, boolean ignoreErrors) {
+        visit(collector, collector.getFilter(), ignoreErrors);
+        return collector.getResult();
+    }
+
+    /**
+     * feeds all consumers of the scan plan in a single pass over the file.
+     * @param plan the scan plan.
+     * @param ignoreErrors ignores any page parse errors.
+     */
+    public void scan(ScanPlan plan, boolean ignoreErrors) {
+        if (!plan.isEmpty()) {
+            visit(plan, plan.getFilter(), ignoreErrors);
         }
-        return new RandomAccess(out.toByteArray());
     }
 
     public byte[] getBytes() {
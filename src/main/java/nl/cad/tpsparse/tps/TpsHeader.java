@@ -32,12 +32,12 @@ public class TpsHeader {
     private int zeros;
     private int lastIssuedRow;
     private int changes;
-    private int managementPageRef;
+    private long managementPageRef;
 
     private RandomAccess rx;
 
-    private int[] pageStart;
-    private int[] pageEnd;
+    private long[] pageStart;
+    private long[] pageEnd;
 
     /**
      * 
@@ -67,11 +67,11 @@ public class TpsHeader {
         return "tOpS".equals(topSpeed);
     }
 
-    public int[] getPageEnd() {
+    public long[] getPageEnd() {
         return pageEnd;
     }
 
-    public int[] getPageStart() {
+    public long[] getPageStart() {
         return pageStart;
     }
 
@@ -118,7 +118,7 @@ public class TpsHeader {
         return changes;
     }
 
-    public int getManagementPageRef() {
+    public long getManagementPageRef() {
         return managementPageRef;
     }
 
@@ -39,36 +39,88 @@ import nl.cad.tpsparse.bin.RunLengthEncodingException;
  */
 public class TpsPage {
 
-    private int addr;
+    private long offset;
+    private long addr;
     private int pageSize;
     private int pageSizeUncompressed;
     private int pageSizeUncompressedWithoutHeader;
     private int recordCount;
     private int flags;
+    private boolean ignoreErrors;
 
     private RandomAccess compressedData;
     private RandomAccess data;
     private List<TpsRecord> records = new ArrayList<>();
 
     public TpsPage(RandomAccess rx) {
-        addr = rx.leLong();
+        offset = rx.position();
+        addr = rx.leULong();
         pageSize = rx.leShort();
-        RandomAccess header = rx.read(pageSize - 6);
-        pageSizeUncompressed = header.leShort();
-        pageSizeUncompressedWithoutHeader = header.leShort();
-        recordCount = header.leShort();
-        flags = header.leByte();
+        pageSizeUncompressed = rx.leShort();
+        pageSizeUncompressedWithoutHeader = rx.leShort();
+        recordCount = rx.leShort();
+        flags = rx.leByte();
         //
-        compressedData = header.read(pageSize - 13);
+        compressedData = rx.read(pageSize - 13);
+    }
+
+    /**
+     * constructs a TpsPage from an already parsed page header.
+     * @param compressedData the data following the page header.
+     */
+    TpsPage(RandomAccess compressedData, long offset, long addr, int pageSize, int pageSizeUncompressed, int pageSizeUncompressedWithoutHeader, int recordCount,
+            int flags) {
+        this.compressedData = compressedData;
+        this.offset = offset;
+        this.addr = addr;
+        this.pageSize = pageSize;
+        this.pageSizeUncompressed = pageSizeUncompressed;
+        this.pageSizeUncompressedWithoutHeader = pageSizeUncompressedWithoutHeader;
+        this.recordCount = recordCount;
+        this.flags = flags;
+    }
+
+    /**
+     * creates the page at the given offset from its header.
+     * @param rx the file.
+     * @param ofs the offset of the page.
+     * @return the page.
+     */
+    static TpsPage at(RandomAccess rx, long ofs) {
+        int size = rx.peekLeShort(ofs + 4);
+        return new TpsPage(rx.view(ofs + 13, size - 13), ofs, rx.peekLeULong(ofs), size, rx.peekLeShort(ofs + 6), rx.peekLeShort(ofs + 8), rx.peekLeShort(ofs + 10),
+                rx.peekLeByte(ofs + 12));
+    }
+
+    /**
+     * @param ignoreErrors true to treat a page that cannot be decompressed as
+     * an empty page instead of failing.
+     */
+    void setIgnoreErrors(boolean ignoreErrors) {
+        this.ignoreErrors = ignoreErrors;
+    }
+
+    /**
+     * @return true if the page is run length encoded, so its data is
+     * decompressed into a buffer of its own instead of being a view on the file.
+     */
+    public boolean isCompressed() {
+        return (pageSize != pageSizeUncompressed) && (flags == 0);
     }
 
     protected void uncompress() {
-        if ((pageSize != pageSizeUncompressed) && (flags == 0)) {
+        if (isCompressed()) {
             try {
                 compressedData.pushPosition();
-                data = compressedData.deRle(compressedData);
+                // The page header holds the exact size of the uncompressed data.
+                data = compressedData.deRle(compressedData, new byte[Math.max(0, pageSizeUncompressed - 13)]);
             } catch (Exception ex) {
-                throw new RunLengthEncodingException("Bad RLE DataBlock at index " + compressedData + " in " + this, ex);
+                RunLengthEncodingException rle = new RunLengthEncodingException("Bad RLE DataBlock at index " + compressedData + " in " + this, ex);
+                if (!ignoreErrors) {
+                    throw rle;
+                }
+                System.err.println("Ignored : " + rle.getMessage());
+                data = new RandomAccess(new byte[0]);
             } finally {
                 compressedData.popPosition();
             }
@@ -102,7 +154,14 @@ public class TpsPage {
         return sb.toString();
     }
 
-    public int getAddr() {
+    /**
+     * @return the offset of the page in the file.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getAddr() {
         return addr;
     }
 
@@ -130,6 +189,15 @@ public class TpsPage {
         return getData();
     }
 
+    /**
+     * Skip pages with non 0x00 flags as they don't seem to contain TpsRecords,
+     * and pages without data (like a page that could not be decompressed).
+     * @return true if the page contains TpsRecords.
+     */
+    public boolean hasRecords() {
+        return flags == 0x00 && getData().length() > 0;
+    }
+
     /**
      * (re)parses all TpsRecords in the page.
      */
@@ -138,18 +206,20 @@ public class TpsPage {
             uncompress();
         }
         records.clear();
-        // Skip pages with non 0x00 flags as they don't seem to contain TpsRecords.
-        if (flags == 0x00) {
+        if (hasRecords()) {
             data.pushPosition();
             try {
+                // The record headers are parsed through a single reusable view.
+                RandomAccess scratch = new RandomAccess(new byte[0]);
                 TpsRecord prev = null;
                 do {
                     TpsRecord current = null;
                     if (prev == null) {
-                        current = new TpsRecord(data);
+                        current = new TpsRecord(data, scratch);
                     } else {
-                        current = new TpsRecord(prev, data);
+                        current = new TpsRecord(prev, data, scratch);
                     }
+                    current.setPageOffset(offset);
                     records.add(current);
                     prev = current;
                 } while (!data.isAtEnd() && records.size() < recordCount);
@@ -159,6 +229,33 @@ public class TpsPage {
         }
     }
 
+    /**
+     * parses only the records selected by the filter. The first bytes of each
+     * record are reconstructed in a small buffer and checked by the filter, so
+     * no TpsRecord or header is built for records that are not selected.
+     * @param filter the filter.
+     * @return the selected records.
+     */
+    public List<TpsRecord> getRecords(RecordFilter filter) {
+        List<TpsRecord> results = new ArrayList<>();
+        if (!hasRecords()) {
+            return results;
+        }
+        RecordReader reader = new RecordReader(getData().duplicate(), recordCount);
+        RandomAccess scratch = new RandomAccess(new byte[0]);
+        while (reader.hasNext()) {
+            reader.next();
+            if (filter.matches(reader.getHead(), reader.getHeadLength(), reader.getHeaderLength())) {
+                TpsRecord record = new TpsRecord(reader.getFlags(), reader.getRecordLength(), reader.getHeaderLength(), reader.getPrefix(), reader.read(), scratch);
+                record.setPageOffset(offset);
+                results.add(record);
+            } else {
+                reader.skip();
+            }
+        }
+        return results;
+    }
+
     public List<TpsRecord> getRecords() {
         if (isFlushed()) {
             parseRecords();
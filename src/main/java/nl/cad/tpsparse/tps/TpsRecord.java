@@ -15,8 +15,6 @@
  */
 package nl.cad.tpsparse.tps;
 
-import java.io.ByteArrayOutputStream;
-
 import nl.cad.tpsparse.bin.RandomAccess;
 import nl.cad.tpsparse.tps.header.AbstractHeader;
 import nl.cad.tpsparse.tps.header.DataHeader;
@@ -32,6 +30,8 @@ import nl.cad.tpsparse.tps.header.TableNameHeader;
  * There are two ways of constructing a TpsRecord:
  * - one without any previous records.
  * - one by copying a part of the previous record, to save some bytes.
+ * Either way the data is a view on the page, in the second case preceded
+ * by the bytes taken from the previous record.
  * 
  * There are different kinds of TpsRecords each identified by their Header, which is
  * actually a header in a header. The first byte determines the copy mechanism used,
@@ -46,7 +46,9 @@ public class TpsRecord {
     private int recordLength;
     private int headerLength;
     private RandomAccess data;
+    private byte[] prefix;
     private AbstractHeader header;
+    private long pageOffset = -1;
 
     /**
      * constructs a new TpsRecord. This constructor is typically called on the
@@ -54,6 +56,15 @@ public class TpsRecord {
      * @param rx to read the data from.
      */
     public TpsRecord(RandomAccess rx) {
+        this(rx, (RandomAccess) null);
+    }
+
+    /**
+     * constructs a new TpsRecord, parsing the header through the given scratch view.
+     * @param rx to read the data from.
+     * @param scratch reusable view for the header, may be null.
+     */
+    TpsRecord(RandomAccess rx, RandomAccess scratch) {
         flags = rx.leByte();
         if ((flags & 0xC0) != 0xC0) {
             throw new IllegalArgumentException("Can't construct a TpsRecord without record lengths (0x" + rx.toHex2(flags) + ")");
@@ -62,7 +73,7 @@ public class TpsRecord {
         headerLength = rx.leShort();
         data = rx.read(recordLength);
         //
-        buildHeader();
+        buildHeader(scratch);
     }
 
     /**
@@ -71,6 +82,17 @@ public class TpsRecord {
      * @param rx the data to read from.
      */
     public TpsRecord(TpsRecord previous, RandomAccess rx) {
+        this(previous, rx, null);
+    }
+
+    /**
+     * creates a new TpsRecord by partially copying the previous one, parsing
+     * the header through the given scratch view.
+     * @param previous the previous record.
+     * @param rx the data to read from.
+     * @param scratch reusable view for the header, may be null.
+     */
+    TpsRecord(TpsRecord previous, RandomAccess rx, RandomAccess scratch) {
         flags = rx.leByte();
         if ((flags & 0x80) != 0) {
             recordLength = rx.leShort();
@@ -84,28 +106,80 @@ public class TpsRecord {
         }
         int copy = flags & 0x3F;
         //
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-            out.write(previous.getData().data(), 0, copy);
-            out.write(rx.readBytes(recordLength - copy));
-            data = new RandomAccess(out.toByteArray());
-            if (data.length() != recordLength) {
+            if (copy > recordLength) {
                 throw new IllegalArgumentException("Data and record length mismatch.");
             }
+            RandomAccess tail = rx.read(recordLength - copy);
+            if (copy == 0) {
+                data = tail;
+            } else {
+                // Consecutive records usually copy the same number of bytes, so the prefix can be shared.
+                if (previous.prefix != null && previous.prefix.length == copy) {
+                    prefix = previous.prefix;
+                } else {
+                    prefix = new byte[copy];
+                    previous.getData().peekBytes(0, prefix, 0, copy);
+                }
+                data = tail.prepend(prefix);
+            }
         } catch (Exception ex) {
             throw new RuntimeException("When  reading " + (recordLength - copy) + " bytes of TpsRecord at " + rx);
         }
         //
-        buildHeader();
+        buildHeader(scratch);
+    }
+
+    /**
+     * constructs a TpsRecord from already decoded lengths.
+     * @param flags the record flags.
+     * @param recordLength the record length.
+     * @param headerLength the header length.
+     * @param prefix the bytes taken from the previous record, may be null.
+     * @param tail the rest of the record.
+     * @param scratch reusable view for the header, may be null.
+     */
+    TpsRecord(int flags, int recordLength, int headerLength, byte[] prefix, RandomAccess tail, RandomAccess scratch) {
+        this.flags = flags;
+        this.recordLength = recordLength;
+        this.headerLength = headerLength;
+        this.prefix = prefix;
+        this.data = (prefix == null ? tail : tail.prepend(prefix));
+        buildHeader(scratch);
+    }
+
+    /**
+     * creates a copy of a record with its own position in the data,
+     * which is positioned just after the header like a freshly read record.
+     * The data and header are shared.
+     * @param source the record to copy.
+     */
+    TpsRecord(TpsRecord source) {
+        flags = source.flags;
+        recordLength = source.recordLength;
+        headerLength = source.headerLength;
+        header = source.header;
+        prefix = source.prefix;
+        pageOffset = source.pageOffset;
+        data = source.data.duplicate().jumpAbs(headerLength);
+    }
+
+    /**
+     * @return the bytes taken from the previous record, null if there are none.
+     * Consecutive records may share the same array.
+     */
+    byte[] getPrefix() {
+        return prefix;
     }
 
     /**
      * constructs the header for the record by peeking at the type.
      * Most records have their type at the 5th byte, except for the
      * table name, which has it at position 0.
+     * The headers copy what they need, so the view can be reused afterwards.
      */
-    private void buildHeader() {
-        RandomAccess hdr = data.read(headerLength);
+    private void buildHeader(RandomAccess scratch) {
+        RandomAccess hdr = data.read(headerLength, scratch);
         if (hdr.length() >= 5) {
             //
             if ((hdr.peek(0) & 0xFF) == 0xFE) {
@@ -157,4 +231,15 @@ public class TpsRecord {
     public AbstractHeader getHeader() {
         return header;
     }
+
+    /**
+     * @return the offset in the file of the page the record is on, or -1 if it is not known.
+     */
+    public long getPageOffset() {
+        return pageOffset;
+    }
+
+    void setPageOffset(long pageOffset) {
+        this.pageOffset = pageOffset;
+    }
 }
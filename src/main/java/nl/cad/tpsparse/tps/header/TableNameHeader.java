@@ -24,7 +24,7 @@ public class TableNameHeader extends AbstractHeader {
     public TableNameHeader(RandomAccess rx) {
         super(rx, false);
         isType(0xFE);
-        name = rx.fixedLengthString(rx.length() - rx.position());
+        name = rx.fixedLengthString((int) (rx.length() - rx.position()));
     }
 
     public String getName() {
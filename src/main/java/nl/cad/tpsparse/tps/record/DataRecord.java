@@ -17,21 +17,38 @@ package nl.cad.tpsparse.tps.record;
 
 import java.util.List;
 
+import nl.cad.tpsparse.bin.PackedDateTime;
 import nl.cad.tpsparse.tps.TpsRecord;
 import nl.cad.tpsparse.tps.header.DataHeader;
 
+/**
+ * A row of a table. The fields are decoded from the record bytes on first
+ * access, so records that are only sorted or counted are never decoded.
+ */
 public class DataRecord {
 
     private DataHeader header;
     private TableDefinitionRecord tableDef;
     private List<Object> values;
     private TpsRecord record;
+    private Projection projection;
+    private byte[] raw;
 
     public DataRecord(TpsRecord record, TableDefinitionRecord tableDef) {
+        this(record, tableDef, null);
+    }
+
+    /**
+     * decodes only the fields selected by the projection.
+     * @param record the record.
+     * @param tableDef the table definition.
+     * @param projection the fields to decode, null for all fields.
+     */
+    public DataRecord(TpsRecord record, TableDefinitionRecord tableDef, Projection projection) {
         this.record = record;
         this.header = (DataHeader) record.getHeader();
         this.tableDef = tableDef;
-        this.values = tableDef.parse(record.getData().remainder());
+        this.projection = projection;
     }
 
     public TpsRecord getRecord() {
@@ -46,13 +63,82 @@ public class DataRecord {
         return header.getRecordNumber();
     }
 
+    /**
+     * @return the bytes of the row (without the record header).
+     */
+    public byte[] getRaw() {
+        if (raw == null) {
+            raw = record.getData().duplicate().jumpAbs(record.getHeaderLength()).remainder();
+        }
+        return raw;
+    }
+
+    /**
+     * @return the values of the fields, or of the projected fields in projection order.
+     */
     public List<Object> getValues() {
+        if (values == null) {
+            if (projection == null) {
+                values = tableDef.parse(getRaw());
+            } else {
+                values = tableDef.getRowDecoder().decode(getRaw(), projection.getFields());
+            }
+        }
         return values;
     }
 
+    /**
+     * decodes a single field, without decoding the others.
+     * @param idx the index in the values (the projection index when projected).
+     * @return the value.
+     */
+    public Object getValue(int idx) {
+        if (values != null) {
+            return values.get(idx);
+        }
+        int field = (projection == null ? idx : projection.getFields()[idx]);
+        return tableDef.getRowDecoder().getDecoder(field).decode(getRaw());
+    }
+
+    /**
+     * reads a DATE field without creating a date object.
+     * @param idx the index in the values (the projection index when projected).
+     * @return the packed date (see PackedDateTime), 0 if there is no date.
+     */
+    public int getDate(int idx) {
+        return readInt(idx, 4, "a date");
+    }
+
+    /**
+     * reads a TIME field without creating a time object.
+     * @param idx the index in the values (the projection index when projected).
+     * @return the minute of the day.
+     */
+    public int getMinuteOfDay(int idx) {
+        return PackedDateTime.minuteOfDay(readInt(idx, 5, "a time"));
+    }
+
+    private int readInt(int idx, int type, String expected) {
+        int field = (projection == null ? idx : projection.getFields()[idx]);
+        FieldDefinitionRecord def = tableDef.getFields().get(field);
+        if (def.getFieldType() != type || def.isArray()) {
+            throw new IllegalArgumentException("Field '" + def.getFieldName() + "' of type " + def.getFieldType() + " is not " + expected);
+        }
+        byte[] row = getRaw();
+        int ofs = def.getOffset();
+        return (row[ofs] & 0xFF) | ((row[ofs + 1] & 0xFF) << 8) | ((row[ofs + 2] & 0xFF) << 16) | ((row[ofs + 3] & 0xFF) << 24);
+    }
+
+    /**
+     * @return the projection or null if all fields were decoded.
+     */
+    public Projection getProjection() {
+        return projection;
+    }
+
     @Override
     public String toString() {
-        return header.getRecordNumber() + " : " + values;
+        return header.getRecordNumber() + " : " + getValues();
     }
 
 }
@@ -0,0 +1,185 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps.record;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Selects the fields and memos of a table that should be read. Fields that
+ * are not selected are never decoded and memos that are not selected are
+ * never fetched.
+ *
+ * Fields and memos are identified by their index in the TableDefinitionRecord
+ * and are kept in the order in which they were selected.
+ *
+ * @author E.Hooijmeijer
+ */
+public class Projection {
+
+    private final int[] fields;
+    private final int[] memos;
+
+    /**
+     * @param fields the indexes of the selected fields.
+     * @param memos the indexes of the selected memos.
+     */
+    public Projection(int[] fields, int[] memos) {
+        this.fields = fields;
+        this.memos = memos;
+    }
+
+    /**
+     * @param def the table definition.
+     * @return a projection selecting all fields and memos of the table.
+     */
+    public static Projection all(TableDefinitionRecord def) {
+        return new Projection(range(def.getFields().size()), range(def.getMemos().size()));
+    }
+
+    /**
+     * selects fields and memos by name. Names are matched case insensitive,
+     * with or without the table prefix.
+     * @param def the table definition.
+     * @param names the names of the fields and memos.
+     * @return the projection.
+     * @throws IllegalArgumentException if a name is not a field or memo of the table.
+     */
+    public static Projection byName(TableDefinitionRecord def, Collection<String> names) {
+        List<Integer> fields = new ArrayList<>();
+        List<Integer> memos = new ArrayList<>();
+        for (String name : names) {
+            int idx = indexOfField(def.getFields(), name);
+            if (idx >= 0) {
+                fields.add(idx);
+                continue;
+            }
+            idx = indexOfMemo(def.getMemos(), name);
+            if (idx >= 0) {
+                memos.add(idx);
+                continue;
+            }
+            throw new IllegalArgumentException("Unknown column '" + name + "'");
+        }
+        return new Projection(toArray(fields), toArray(memos));
+    }
+
+    /**
+     * selects fields and memos by name, like byName, but skips the names that
+     * are not a field or memo of the table. Useful when the same names are
+     * applied to all tables of a file.
+     * @param def the table definition.
+     * @param names the names of the fields and memos.
+     * @return the projection, empty if the table has none of the names.
+     */
+    public static Projection matching(TableDefinitionRecord def, Collection<String> names) {
+        List<String> known = new ArrayList<>();
+        for (String name : names) {
+            if (hasColumn(def, name)) {
+                known.add(name);
+            }
+        }
+        return byName(def, known);
+    }
+
+    /**
+     * @param def the table definition.
+     * @param name the name, case insensitive, with or without the table prefix.
+     * @return true if the name is a field or memo of the table.
+     */
+    public static boolean hasColumn(TableDefinitionRecord def, String name) {
+        return indexOfField(def.getFields(), name) >= 0 || indexOfMemo(def.getMemos(), name) >= 0;
+    }
+
+    /**
+     * group fields are overlays on other fields, so a CSV export never needs them.
+     * @param def the table definition.
+     * @return this projection without the group fields.
+     */
+    public Projection withoutGroups(TableDefinitionRecord def) {
+        List<Integer> results = new ArrayList<>();
+        for (int field : fields) {
+            if (!def.getFields().get(field).isGroup()) {
+                results.add(field);
+            }
+        }
+        return new Projection(toArray(results), memos);
+    }
+
+    private static int indexOfField(List<FieldDefinitionRecord> fields, String name) {
+        for (int t = 0; t < fields.size(); t++) {
+            FieldDefinitionRecord field = fields.get(t);
+            if (field.getFieldName().equalsIgnoreCase(name) || field.getFieldNameNoTable().equalsIgnoreCase(name)) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfMemo(List<MemoDefinitionRecord> memos, String name) {
+        for (int t = 0; t < memos.size(); t++) {
+            MemoDefinitionRecord memo = memos.get(t);
+            if (memo.getName().equalsIgnoreCase(name) || memo.getNameNoTable().equalsIgnoreCase(name)) {
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] range(int size) {
+        int[] results = new int[size];
+        for (int t = 0; t < size; t++) {
+            results[t] = t;
+        }
+        return results;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] results = new int[values.size()];
+        for (int t = 0; t < results.length; t++) {
+            results[t] = values.get(t);
+        }
+        return results;
+    }
+
+    /**
+     * @return the indexes of the selected fields.
+     */
+    public int[] getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the indexes of the selected memos.
+     */
+    public int[] getMemos() {
+        return memos;
+    }
+
+    /**
+     * @return true if neither fields nor memos are selected.
+     */
+    public boolean isEmpty() {
+        return fields.length == 0 && memos.length == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Projection(" + Arrays.toString(fields) + "," + Arrays.toString(memos) + ")";
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps.record;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nl.cad.tpsparse.bin.BinaryCodedDecimal;
+import nl.cad.tpsparse.bin.PackedDateTime;
+import nl.cad.tpsparse.bin.StringDecoder;
+import nl.cad.tpsparse.bin.StringDictionary;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+
+/**
+ * The fields of a TableDefinitionRecord compiled into decoders. The type,
+ * offset and length of each field are resolved and validated once, so
+ * decoding a row is a straight walk over the decoders reading from the row
+ * bytes.
+ * @author E.Hooijmeijer
+ */
+public class RowDecoder {
+
+    /**
+     * decodes a single field (or array element) from the row bytes.
+     */
+    public abstract static class FieldDecoder {
+        protected final int ofs;
+        protected final int len;
+
+        protected FieldDecoder(int ofs, int len) {
+            this.ofs = ofs;
+            this.len = len;
+        }
+
+        /**
+         * @param row the row bytes.
+         * @return the value of the field.
+         */
+        public abstract Object decode(byte[] row);
+
+        public int getOffset() {
+            return ofs;
+        }
+
+        public int getLength() {
+            return len;
+        }
+
+        protected static int leShort(byte[] row, int ofs) {
+            return (row[ofs] & 0xFF) | ((row[ofs + 1] & 0xFF) << 8);
+        }
+
+        protected static int leLong(byte[] row, int ofs) {
+            return (row[ofs] & 0xFF) | ((row[ofs + 1] & 0xFF) << 8) | ((row[ofs + 2] & 0xFF) << 16) | ((row[ofs + 3] & 0xFF) << 24);
+        }
+
+        protected static void checkRange(byte[] row, int ofs, int len) {
+            if (ofs + len > row.length) {
+                throw new ArrayIndexOutOfBoundsException("Array index out of range: " + (ofs + len));
+            }
+        }
+    }
+
+    private static final class ByteDecoder extends FieldDecoder {
+        private ByteDecoder(int ofs) {
+            super(ofs, 1);
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            return row[ofs] & 0xFF;
+        }
+    }
+
+    private static final class ShortDecoder extends FieldDecoder {
+        private ShortDecoder(int ofs) {
+            super(ofs, 2);
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            return leShort(row, ofs);
+        }
+    }
+
+    private static final class DateDecoder extends FieldDecoder {
+        private DateDecoder(int ofs, int len) {
+            super(ofs, len);
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            int date = leLong(row, ofs);
+            if (!PackedDateTime.isNull(date)) {
+                PackedDateTime.checkDate(date);
+                return new LocalDate(PackedDateTime.year(date), PackedDateTime.month(date), PackedDateTime.day(date));
+            } else {
+                return null;
+            }
+        }
+    }
+
+    private static final class TimeDecoder extends FieldDecoder {
+        private TimeDecoder(int ofs, int len) {
+            super(ofs, len);
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            int time = leLong(row, ofs);
+            // the hours and minutes are range checked by LocalTime.
+            return new LocalTime(PackedDateTime.hours(time), PackedDateTime.minutes(time), 0, 0);
+        }
+    }
+
+    private static final class LongDecoder extends FieldDecoder {
+        private LongDecoder(int ofs) {
+            super(ofs, 4);
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            return leLong(row, ofs);
+        }
+    }
+
+    private static final class ULongDecoder extends FieldDecoder {
+        private ULongDecoder(int ofs) {
+            super(ofs, 4);
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            return leLong(row, ofs) & 0xFFFFFFFFL;
+        }
+    }
+
+    private static final class FloatDecoder extends FieldDecoder {
+        private FloatDecoder(int ofs) {
+            super(ofs, 4);
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            return Float.intBitsToFloat(leLong(row, ofs));
+        }
+    }
+
+    private static final class DoubleDecoder extends FieldDecoder {
+        private DoubleDecoder(int ofs) {
+            super(ofs, 8);
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            long lsb = leLong(row, ofs) & 0xFFFFFFFFL;
+            long msb = leLong(row, ofs + 4) & 0xFFFFFFFFL;
+            return Double.longBitsToDouble(msb << 32 | lsb);
+        }
+    }
+
+    private static final class BcdDecoder extends FieldDecoder {
+        private final int digitsAfterDecimalPoint;
+
+        private BcdDecoder(int ofs, int len, int digitsAfterDecimalPoint) {
+            super(ofs, len);
+            this.digitsAfterDecimalPoint = digitsAfterDecimalPoint;
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            return BinaryCodedDecimal.toString(row, ofs, len, digitsAfterDecimalPoint);
+        }
+    }
+
+    private static final class FixedStringDecoder extends FieldDecoder {
+        private final StringDecoder strings;
+        private final StringDictionary dictionary;
+
+        private FixedStringDecoder(int ofs, int len, StringDecoder strings) {
+            super(ofs, len);
+            this.strings = strings;
+            this.dictionary = strings.newDictionary();
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            checkRange(row, ofs, len);
+            return strings.decodeFixed(row, ofs, len, dictionary);
+        }
+    }
+
+    /**
+     * zero terminated strings are not bound by the field length.
+     */
+    private static final class ZeroTerminatedStringDecoder extends FieldDecoder {
+        private final StringDecoder strings;
+        private final StringDictionary dictionary;
+
+        private ZeroTerminatedStringDecoder(int ofs, int len, StringDecoder strings) {
+            super(ofs, len);
+            this.strings = strings;
+            this.dictionary = strings.newDictionary();
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            int end = ofs;
+            while (row[end] != 0) {
+                end++;
+            }
+            return strings.decode(row, ofs, end - ofs, dictionary);
+        }
+    }
+
+    private static final class PascalStringDecoder extends FieldDecoder {
+        private final StringDecoder strings;
+        private final StringDictionary dictionary;
+
+        private PascalStringDecoder(int ofs, int len, StringDecoder strings) {
+            super(ofs, len);
+            this.strings = strings;
+            this.dictionary = strings.newDictionary();
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            int strLen = row[ofs] & 0xFF;
+            checkRange(row, ofs + 1, strLen);
+            return strings.decode(row, ofs + 1, strLen, dictionary);
+        }
+    }
+
+    private static final class GroupDecoder extends FieldDecoder {
+        private GroupDecoder(int ofs, int len) {
+            super(ofs, len);
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            checkRange(row, ofs, len);
+            return Arrays.copyOfRange(row, ofs, ofs + len);
+        }
+    }
+
+    private static final class ArrayDecoder extends FieldDecoder {
+        private final FieldDecoder[] elements;
+
+        private ArrayDecoder(int ofs, int len, FieldDecoder[] elements) {
+            super(ofs, len);
+            this.elements = elements;
+        }
+
+        @Override
+        public Object decode(byte[] row) {
+            Object[] arr = new Object[elements.length];
+            for (int y = 0; y < arr.length; y++) {
+                arr[y] = elements[y].decode(row);
+            }
+            return arr;
+        }
+    }
+
+    private final FieldDecoder[] decoders;
+
+    /**
+     * compiles the fields of the table definition.
+     * @param fields the fields.
+     * @param stringEncoding the encoding of strings.
+     * @throws IllegalArgumentException if a field has an unsupported type or an invalid length.
+     */
+    public RowDecoder(List<FieldDefinitionRecord> fields, Charset stringEncoding) {
+        this(fields, new StringDecoder(stringEncoding));
+    }
+
+    /**
+     * compiles the fields of the table definition.
+     * @param fields the fields.
+     * @param strings decodes the strings, each string column gets its own dictionary.
+     * @throws IllegalArgumentException if a field has an unsupported type or an invalid length.
+     */
+    public RowDecoder(List<FieldDefinitionRecord> fields, StringDecoder strings) {
+        decoders = new FieldDecoder[fields.size()];
+        for (int t = 0; t < decoders.length; t++) {
+            FieldDefinitionRecord field = fields.get(t);
+            int ofs = field.getOffset();
+            int len = field.getLength();
+            if (field.isArray()) {
+                FieldDecoder[] elements = new FieldDecoder[field.getNrOfElements()];
+                int fieldSize = len / elements.length;
+                for (int y = 0; y < elements.length; y++) {
+                    elements[y] = compile(field.getFieldType(), field, ofs + fieldSize * y, fieldSize, strings);
+                }
+                decoders[t] = new ArrayDecoder(ofs, len, elements);
+            } else {
+                decoders[t] = compile(field.getFieldType(), field, ofs, len, strings);
+            }
+        }
+    }
+
+    /**
+     * @param type the field type.
+     * @param field the field, for the BCD digits.
+     * @param ofs the offset of the value in the row.
+     * @param len the length of the value.
+     * @param strings decodes the strings.
+     * @return the decoder of a single value.
+     * @throws IllegalArgumentException if the type is unsupported or the length invalid.
+     */
+    static FieldDecoder compile(int type, FieldDefinitionRecord field, int ofs, int len, StringDecoder strings) {
+        switch (type) {
+        case 1:
+            assertEqual(1, len);
+            return new ByteDecoder(ofs);
+        case 2:
+        case 3:
+            // signed and unsigned shorts are both read unsigned.
+            assertEqual(2, len);
+            return new ShortDecoder(ofs);
+        case 4:
+            return new DateDecoder(ofs, len);
+        case 5:
+            return new TimeDecoder(ofs, len);
+        case 6:
+            assertEqual(4, len);
+            return new LongDecoder(ofs);
+        case 7:
+            assertEqual(4, len);
+            return new ULongDecoder(ofs);
+        case 8:
+            assertEqual(4, len);
+            return new FloatDecoder(ofs);
+        case 9:
+            assertEqual(8, len);
+            return new DoubleDecoder(ofs);
+        case 0x0A:
+            return new BcdDecoder(ofs, len, field.getBcdDigitsAfterDecimalPoint());
+        case 0x12:
+            return new FixedStringDecoder(ofs, len, strings);
+        case 0x13:
+            return new ZeroTerminatedStringDecoder(ofs, len, strings);
+        case 0x14:
+            return new PascalStringDecoder(ofs, len, strings);
+        case 0x16:
+            return new GroupDecoder(ofs, len);
+        default:
+            throw new IllegalArgumentException("Unsupported type " + type + " (" + len + ")");
+        }
+    }
+
+    private static void assertEqual(int ref, int value) {
+        if (ref != value) {
+            throw new IllegalArgumentException(ref + " != " + value);
+        }
+    }
+
+    /**
+     * decodes all fields of a row.
+     * @param row the row bytes.
+     * @return the values, arrays as Object[].
+     */
+    public List<Object> decode(byte[] row) {
+        List<Object> values = new ArrayList<Object>(decoders.length);
+        for (FieldDecoder decoder : decoders) {
+            values.add(decoder.decode(row));
+        }
+        return values;
+    }
+
+    /**
+     * decodes the selected fields of a row, skipping all others.
+     * @param row the row bytes.
+     * @param fields the indexes of the fields to decode.
+     * @return the values in the order of the indexes, arrays as Object[].
+     */
+    public List<Object> decode(byte[] row, int[] fields) {
+        List<Object> values = new ArrayList<Object>(fields.length);
+        for (int field : fields) {
+            values.add(decoders[field].decode(row));
+        }
+        return values;
+    }
+
+    /**
+     * @param field the index of the field in the table definition.
+     * @return the decoder of the field.
+     */
+    public FieldDecoder getDecoder(int field) {
+        return decoders[field];
+    }
+
+    public int getFieldCount() {
+        return decoders.length;
+    }
+}
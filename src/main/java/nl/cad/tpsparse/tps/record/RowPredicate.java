@@ -0,0 +1,509 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps.record;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import nl.cad.tpsparse.bin.PackedDateTime;
+import nl.cad.tpsparse.bin.RandomAccess;
+
+/**
+ * A condition on the fields of a row that is evaluated on the raw record
+ * bytes, so rows that do not match are discarded before a DataRecord is
+ * built.
+ *
+ * Supported are the integer types, dates, times and strings. Dates and times
+ * are compared on their packed values (which sort in date and time order),
+ * strings on their bytes, with trailing spaces of fixed length strings
+ * ignored. Date and time values are parsed by PackedDateTime. Rows without a
+ * date only match a condition on that date if it asks for them with an empty
+ * value, like 'name=' or 'name=|2012-01-01'. Conditions on other types (like
+ * BCD and floats) are rejected when they are created.
+ *
+ * @author E.Hooijmeijer
+ */
+public abstract class RowPredicate {
+
+    /**
+     * @param row the record data, positioned at the first byte of the row.
+     * @return true if the row matches.
+     */
+    public abstract boolean matches(RandomAccess row);
+
+    /**
+     * reads a field as a number.
+     */
+    private abstract static class NumberReader {
+        protected final int ofs;
+
+        protected NumberReader(int ofs) {
+            this.ofs = ofs;
+        }
+
+        abstract long read(RandomAccess row, long base);
+
+        abstract long parse(String value);
+
+        /**
+         * @return true if the value stands for no value.
+         */
+        boolean isNull(long value) {
+            return false;
+        }
+    }
+
+    private static class UnsignedReader extends NumberReader {
+        private final int len;
+
+        private UnsignedReader(int ofs, int len) {
+            super(ofs);
+            this.len = len;
+        }
+
+        @Override
+        long read(RandomAccess row, long base) {
+            switch (len) {
+            case 1:
+                return row.peekLeByte(base + ofs);
+            case 2:
+                return row.peekLeShort(base + ofs);
+            default:
+                return row.peekLeULong(base + ofs);
+            }
+        }
+
+        @Override
+        long parse(String value) {
+            return Long.parseLong(value);
+        }
+    }
+
+    private static class SignedLongReader extends NumberReader {
+        private SignedLongReader(int ofs) {
+            super(ofs);
+        }
+
+        @Override
+        long read(RandomAccess row, long base) {
+            return (int) row.peekLeULong(base + ofs);
+        }
+
+        @Override
+        long parse(String value) {
+            return Long.parseLong(value);
+        }
+    }
+
+    private static class DateReader extends NumberReader {
+        private DateReader(int ofs) {
+            super(ofs);
+        }
+
+        @Override
+        long read(RandomAccess row, long base) {
+            return row.peekLeULong(base + ofs);
+        }
+
+        @Override
+        long parse(String value) {
+            // an empty value explicitly asks for rows without a date.
+            return (value.isEmpty() ? 0 : PackedDateTime.parseDate(value) & 0xFFFFFFFFL);
+        }
+
+        @Override
+        boolean isNull(long value) {
+            return PackedDateTime.isNull((int) value);
+        }
+    }
+
+    private static class TimeReader extends NumberReader {
+        private TimeReader(int ofs) {
+            super(ofs);
+        }
+
+        @Override
+        long read(RandomAccess row, long base) {
+            return row.peekLeULong(base + ofs) & 0x7FFF0000L;
+        }
+
+        @Override
+        long parse(String value) {
+            return PackedDateTime.parseTime(value);
+        }
+    }
+
+    /**
+     * locates the bytes of a string field.
+     */
+    private abstract static class StringReader {
+        protected final int ofs;
+        protected final Charset charset;
+
+        protected StringReader(int ofs, Charset charset) {
+            this.ofs = ofs;
+            this.charset = charset;
+        }
+
+        /**
+         * @return the start of the string relative to the row.
+         */
+        abstract int start(RandomAccess row, long base);
+
+        /**
+         * @return the length of the string.
+         */
+        abstract int length(RandomAccess row, long base);
+
+        byte[] parse(String value) {
+            return value.getBytes(charset);
+        }
+
+        /**
+         * compares the string unsigned byte by byte.
+         */
+        int compare(RandomAccess row, long base, byte[] value) {
+            int start = start(row, base);
+            int len = length(row, base);
+            int n = Math.min(len, value.length);
+            for (int t = 0; t < n; t++) {
+                int diff = row.peekLeByte(base + start + t) - (value[t] & 0xFF);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return len - value.length;
+        }
+    }
+
+    private static class FixedStringReader extends StringReader {
+        private final int len;
+
+        private FixedStringReader(int ofs, int len, Charset charset) {
+            super(ofs, charset);
+            this.len = len;
+        }
+
+        @Override
+        int start(RandomAccess row, long base) {
+            return ofs;
+        }
+
+        @Override
+        int length(RandomAccess row, long base) {
+            int end = len;
+            while (end > 0 && row.peekLeByte(base + ofs + end - 1) == ' ') {
+                end--;
+            }
+            return end;
+        }
+
+        @Override
+        byte[] parse(String value) {
+            int end = value.length();
+            while (end > 0 && value.charAt(end - 1) == ' ') {
+                end--;
+            }
+            return value.substring(0, end).getBytes(charset);
+        }
+    }
+
+    private static class ZeroTerminatedStringReader extends StringReader {
+        private ZeroTerminatedStringReader(int ofs, Charset charset) {
+            super(ofs, charset);
+        }
+
+        @Override
+        int start(RandomAccess row, long base) {
+            return ofs;
+        }
+
+        @Override
+        int length(RandomAccess row, long base) {
+            int len = 0;
+            while (row.peekLeByte(base + ofs + len) != 0) {
+                len++;
+            }
+            return len;
+        }
+    }
+
+    private static class PascalStringReader extends StringReader {
+        private PascalStringReader(int ofs, Charset charset) {
+            super(ofs, charset);
+        }
+
+        @Override
+        int start(RandomAccess row, long base) {
+            return ofs + 1;
+        }
+
+        @Override
+        int length(RandomAccess row, long base) {
+            return row.peekLeByte(base + ofs);
+        }
+    }
+
+    private static class NumberRange extends RowPredicate {
+        private final NumberReader reader;
+        private final long min;
+        private final long max;
+
+        private NumberRange(NumberReader reader, long min, long max) {
+            this.reader = reader;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public boolean matches(RandomAccess row) {
+            long value = reader.read(row, row.position());
+            if (reader.isNull(value)) {
+                // no value is not before or after anything, only equal to no value.
+                return reader.isNull(min) && reader.isNull(max);
+            }
+            return value >= min && value <= max;
+        }
+    }
+
+    private static class NumberSet extends RowPredicate {
+        private final NumberReader reader;
+        private final long[] values;
+
+        private NumberSet(NumberReader reader, long[] values) {
+            this.reader = reader;
+            this.values = values;
+            Arrays.sort(values);
+        }
+
+        @Override
+        public boolean matches(RandomAccess row) {
+            return Arrays.binarySearch(values, reader.read(row, row.position())) >= 0;
+        }
+    }
+
+    private static class StringRange extends RowPredicate {
+        private final StringReader reader;
+        private final byte[] min;
+        private final byte[] max;
+
+        private StringRange(StringReader reader, byte[] min, byte[] max) {
+            this.reader = reader;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public boolean matches(RandomAccess row) {
+            long base = row.position();
+            return (min == null || reader.compare(row, base, min) >= 0) && (max == null || reader.compare(row, base, max) <= 0);
+        }
+    }
+
+    private static class StringSet extends RowPredicate {
+        private final StringReader reader;
+        private final byte[][] values;
+
+        private StringSet(StringReader reader, byte[][] values) {
+            this.reader = reader;
+            this.values = values;
+        }
+
+        @Override
+        public boolean matches(RandomAccess row) {
+            long base = row.position();
+            for (byte[] value : values) {
+                if (reader.compare(row, base, value) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class And extends RowPredicate {
+        private final RowPredicate[] predicates;
+
+        private And(RowPredicate[] predicates) {
+            this.predicates = predicates;
+        }
+
+        @Override
+        public boolean matches(RandomAccess row) {
+            for (RowPredicate predicate : predicates) {
+                if (!predicate.matches(row)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param field the field.
+     * @param value the value, formatted as in the CSV output.
+     * @param charset the string encoding of the table.
+     * @return a predicate matching rows where the field equals the value.
+     */
+    public static RowPredicate equalTo(FieldDefinitionRecord field, String value, Charset charset) {
+        return between(field, value, value, charset);
+    }
+
+    /**
+     * @param field the field.
+     * @param min the lowest value (inclusive) or null.
+     * @param max the highest value (inclusive) or null.
+     * @param charset the string encoding of the table.
+     * @return a predicate matching rows where the field is in the range.
+     */
+    public static RowPredicate between(FieldDefinitionRecord field, String min, String max, Charset charset) {
+        NumberReader number = numberReader(field);
+        if (number != null) {
+            return new NumberRange(number, min == null ? Long.MIN_VALUE : number.parse(min), max == null ? Long.MAX_VALUE : number.parse(max));
+        }
+        StringReader string = stringReader(field, charset);
+        return new StringRange(string, min == null ? null : string.parse(min), max == null ? null : string.parse(max));
+    }
+
+    /**
+     * @param field the field.
+     * @param values the values.
+     * @param charset the string encoding of the table.
+     * @return a predicate matching rows where the field has any of the values.
+     */
+    public static RowPredicate in(FieldDefinitionRecord field, Collection<String> values, Charset charset) {
+        NumberReader number = numberReader(field);
+        if (number != null) {
+            long[] results = new long[values.size()];
+            int idx = 0;
+            for (String value : values) {
+                results[idx++] = number.parse(value);
+            }
+            return new NumberSet(number, results);
+        }
+        StringReader string = stringReader(field, charset);
+        byte[][] results = new byte[values.size()][];
+        int idx = 0;
+        for (String value : values) {
+            results[idx++] = string.parse(value);
+        }
+        return new StringSet(string, results);
+    }
+
+    /**
+     * @param predicates the predicates.
+     * @return a predicate matching rows that match all predicates.
+     */
+    public static RowPredicate and(List<RowPredicate> predicates) {
+        if (predicates.size() == 1) {
+            return predicates.get(0);
+        }
+        return new And(predicates.toArray(new RowPredicate[predicates.size()]));
+    }
+
+    /**
+     * @param expression the condition.
+     * @return the name of the field the condition is on.
+     * @throws IllegalArgumentException if the condition cannot be parsed.
+     */
+    public static String getFieldName(String expression) {
+        int idx = expression.indexOf('=');
+        if (idx <= 0) {
+            throw new IllegalArgumentException("Bad condition '" + expression + "', expected name=value");
+        }
+        return expression.substring(0, idx).trim();
+    }
+
+    /**
+     * parses a condition of the form 'name=value', 'name=value1|value2' (any
+     * of the values) or 'name=min..max' (inclusive, either side may be left
+     * out). An empty value stands for no date.
+     * @param def the table definition.
+     * @param expression the condition.
+     * @return the predicate.
+     * @throws IllegalArgumentException if the condition cannot be parsed or the field is unknown.
+     */
+    public static RowPredicate parse(TableDefinitionRecord def, String expression) {
+        String name = getFieldName(expression);
+        String value = expression.substring(expression.indexOf('=') + 1);
+        int[] fields = Projection.byName(def, Arrays.asList(name)).getFields();
+        if (fields.length == 0) {
+            throw new IllegalArgumentException("Conditions on memo '" + name + "' are not supported");
+        }
+        FieldDefinitionRecord field = def.getFields().get(fields[0]);
+        Charset charset = def.getStringEncoding();
+        if (value.contains("|")) {
+            return in(field, Arrays.asList(value.split("\\|", -1)), charset);
+        }
+        int range = value.indexOf("..");
+        if (range >= 0) {
+            String min = value.substring(0, range);
+            String max = value.substring(range + 2);
+            return between(field, min.isEmpty() ? null : min, max.isEmpty() ? null : max, charset);
+        }
+        return equalTo(field, value, charset);
+    }
+
+    private static NumberReader numberReader(FieldDefinitionRecord field) {
+        checkNotArray(field);
+        int ofs = field.getOffset();
+        switch (field.getFieldType()) {
+        case 1:
+            return new UnsignedReader(ofs, 1);
+        case 2:
+        case 3:
+            // signed shorts are decoded unsigned as well.
+            return new UnsignedReader(ofs, 2);
+        case 4:
+            return new DateReader(ofs);
+        case 5:
+            return new TimeReader(ofs);
+        case 6:
+            return new SignedLongReader(ofs);
+        case 7:
+            return new UnsignedReader(ofs, 4);
+        case 8:
+        case 9:
+        case 0x0A:
+            throw new IllegalArgumentException("Conditions on " + field.getFieldTypeName() + " field '" + field.getFieldName()
+                    + "' are not supported, only on integer, date, time and string fields");
+        default:
+            return null;
+        }
+    }
+
+    private static StringReader stringReader(FieldDefinitionRecord field, Charset charset) {
+        int ofs = field.getOffset();
+        switch (field.getFieldType()) {
+        case 0x12:
+            return new FixedStringReader(ofs, field.getLength(), charset);
+        case 0x13:
+            return new ZeroTerminatedStringReader(ofs, charset);
+        case 0x14:
+            return new PascalStringReader(ofs, charset);
+        default:
+            throw new IllegalArgumentException("Conditions on " + field.getFieldTypeName() + " field '" + field.getFieldName() + "' are not supported");
+        }
+    }
+
+    private static void checkNotArray(FieldDefinitionRecord field) {
+        if (field.isArray()) {
+            throw new IllegalArgumentException("Conditions on array field '" + field.getFieldName() + "' are not supported");
+        }
+    }
+}
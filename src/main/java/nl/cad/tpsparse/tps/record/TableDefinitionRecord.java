@@ -20,9 +20,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import nl.cad.tpsparse.bin.RandomAccess;
-
-import org.joda.time.LocalDate;
-import org.joda.time.LocalTime;
+import nl.cad.tpsparse.bin.StringDecoder;
 
 public class TableDefinitionRecord {
 
@@ -35,15 +33,26 @@ public class TableDefinitionRecord {
     private List<MemoDefinitionRecord> memos = new ArrayList<MemoDefinitionRecord>();
     private List<IndexDefinitionRecord> indexes = new ArrayList<IndexDefinitionRecord>();
     private Charset stringEncoding;
+    private StringDecoder stringDecoder;
+    private volatile RowDecoder rowDecoder;
 
     public TableDefinitionRecord(RandomAccess rx, Charset stringEncoding) {
+        this(rx, new StringDecoder(stringEncoding));
+    }
+
+    /**
+     * @param rx the merged table definition records.
+     * @param stringDecoder decodes the strings in the rows.
+     */
+    public TableDefinitionRecord(RandomAccess rx, StringDecoder stringDecoder) {
         this.driverVersion = rx.leShort();
         this.recordLength = rx.leShort();
         this.nrOfFields = rx.leShort();
         this.nrOfMemos = rx.leShort();
         this.nrOfIndexes = rx.leShort();
         //
-        this.stringEncoding = stringEncoding;
+        this.stringEncoding = stringDecoder.getCharset();
+        this.stringDecoder = stringDecoder;
         //
         try {
             for (int t = 0; t < nrOfFields; t++) {
@@ -80,6 +89,14 @@ public class TableDefinitionRecord {
         return recordLength;
     }
 
+    public Charset getStringEncoding() {
+        return stringEncoding;
+    }
+
+    public StringDecoder getStringDecoder() {
+        return stringDecoder;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -89,102 +106,47 @@ public class TableDefinitionRecord {
     }
 
     public List<Object> parse(byte[] record) {
-        RandomAccess rx = new RandomAccess(record);
-        List<Object> values = new ArrayList<Object>(fields.size());
-        for (int t = 0; t < fields.size(); t++) {
-            FieldDefinitionRecord field = fields.get(t);
-            int type = field.getFieldType();
-            int ofs = field.getOffset();
-            int len = field.getLength();
-            if (field.isArray()) {
-                Object[] arr = new Object[field.getNrOfElements()];
-                int fieldSize = len / arr.length;
-                for (int y = 0; y < arr.length; y++) {
-                    arr[y] = parseField(type, ofs + fieldSize * y, fieldSize, field, rx);
-                }
-                values.add(arr);
-            } else {
-                values.add(parseField(type, ofs, len, field, rx));
-            }
-        }
-        return values;
+        return getRowDecoder().decode(record);
     }
 
-    public Object parseField(int type, int ofs, int len, FieldDefinitionRecord field, RandomAccess rx) {
-        rx.jumpAbs(ofs);
-        switch (type) {
-        case 1:
-            // byte
-            assertEqual(1, len);
-            return rx.leByte();
-        case 2:
-            // short
-            assertEqual(2, len);
-            return rx.leShort();
-        case 3:
-            // unsigned short
-            assertEqual(2, len);
-            return rx.leUShort();
-        case 4:
-            // Date, mask encoded.
-            long date = rx.leULong();
-            if (date != 0) {
-                long years = (date & 0xFFFF0000) >> 16;
-                long months = (date & 0x0000FF00) >> 8;
-                long days = (date & 0x000000FF);
-                return new LocalDate((int) years, (int) months, (int) days);
-            } else {
-                return null;
+    /**
+     * compiles the fields into a RowDecoder on first use. DataRecords of the
+     * same table may be decoded on several threads, so the first access is
+     * synchronized and all of them share one decoder (and its dictionaries).
+     * It is not compiled in the constructor as a table with unsupported field
+     * types should still be readable for its definition.
+     * @return the row decoder for this table.
+     */
+    public RowDecoder getRowDecoder() {
+        RowDecoder decoder = rowDecoder;
+        if (decoder == null) {
+            synchronized (this) {
+                decoder = rowDecoder;
+                if (decoder == null) {
+                    decoder = new RowDecoder(fields, stringDecoder);
+                    rowDecoder = decoder;
+                }
             }
-        case 5:
-            //
-            // Time, mask encoded.
-            // So far i've only had values with hours and minutes
-            // but no seconds or milliseconds so I've no way of
-            // knowing how to decode these.
-            //
-            int time = rx.leLong();
-            int mins = (time & 0x00FF0000) >> 16;
-            int hours = (time & 0x7F000000) >> 24;
-            //
-            return new LocalTime(hours, mins, 0, 0);
-        case 6:
-            // Long
-            assertEqual(4, len);
-            return rx.leLong();
-        case 7:
-            // Unsigned Long
-            assertEqual(4, len);
-            return rx.leULong();
-        case 8:
-            // Float
-            assertEqual(4, len);
-            return rx.leFloat();
-        case 9:
-            // Double
-            assertEqual(8, len);
-            return rx.leDouble();
-        case 0x0A:
-            // BCD encoded.
-            return rx.binaryCodedDecimal(len, field.getBcdLengthOfElement(), field.getBcdDigitsAfterDecimalPoint());
-        case 0x12:
-            // Fixed Length String
-            return rx.fixedLengthString(len, stringEncoding);
-        case 0x13:
-            return rx.zeroTerminatedString(stringEncoding);
-        case 0x14:
-            return rx.pascalString(stringEncoding);
-        case 0x16:
-            // Group (an overlay on top of existing data, can be anything).
-            return rx.readBytes(len);
-        default:
-            throw new IllegalArgumentException("Unsupported type " + type + " (" + len + ")");
         }
+        return decoder;
     }
 
-    private void assertEqual(int ref, int value) {
-        if (ref != value) {
-            throw new IllegalArgumentException(ref + " != " + value);
-        }
+    /**
+     * decodes a single value of a record.
+     * @param type the field type.
+     * @param ofs the offset of the value in the record.
+     * @param len the length of the value.
+     * @param field the field.
+     * @param rx the record data.
+     * @return the value.
+     * @deprecated compiles a decoder for every value, use getRowDecoder() instead.
+     */
+    @Deprecated
+    public Object parseField(int type, int ofs, int len, FieldDefinitionRecord field, RandomAccess rx) {
+        // zero terminated strings may extend beyond the field, so the whole record is read.
+        rx.jumpAbs(0);
+        byte[] record = rx.readBytes((int) rx.length());
+        rx.jumpAbs(ofs + len);
+        return RowDecoder.compile(type, field, ofs, len, stringDecoder).decode(record);
     }
 }
@@ -20,6 +20,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 
 import nl.cad.tpsparse.decrypt.Key;
 
@@ -49,7 +53,7 @@ public final class Utils {
     }
 
     public static final byte[] readFully(File file) throws IOException {
-        if (file.length() > ((long) Integer.MAX_VALUE)) {
+        if (exceedsArraySize(file)) {
             throw new IOException("File size exceeds maximum Java Array Size.");
         }
         ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
@@ -66,6 +70,84 @@ public final class Utils {
         return out.toByteArray();
     }
 
+    /**
+     * size of the windows used to map files into memory, a single mapping
+     * cannot exceed 2GB.
+     */
+    public static final int MAPPING_SEGMENT_SIZE = 1 << 30;
+
+    /**
+     * maps the file into memory. The pages are faulted in by the OS when they
+     * are accessed, so the file does not have to fit on the heap. Files larger
+     * than MAPPING_SEGMENT_SIZE are mapped as a number of consecutive windows.
+     * The mappings stay valid after the underlying channel has been closed.
+     * @param file the file.
+     * @param writable if the mapping should be writable. Writes are private
+     * (copy on write) and never end up in the file. This is required for
+     * in-place decryption. A private mapping needs write access to the file,
+     * read-only files are copied onto the heap instead.
+     * @return the mapped segments.
+     * @throws IOException if mapping failed.
+     */
+    public static final ByteBuffer[] map(File file, boolean writable) throws IOException {
+        if (writable && !file.canWrite()) {
+            return readSegments(file);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            int count = (int) Math.max(1, (size + MAPPING_SEGMENT_SIZE - 1) / MAPPING_SEGMENT_SIZE);
+            ByteBuffer[] segments = new ByteBuffer[count];
+            for (int t = 0; t < count; t++) {
+                long ofs = (long) t * MAPPING_SEGMENT_SIZE;
+                segments[t] = channel.map(writable ? MapMode.PRIVATE : MapMode.READ_ONLY, ofs, Math.min(MAPPING_SEGMENT_SIZE, size - ofs));
+            }
+            return segments;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * reads the file into heap buffers of at most MAPPING_SEGMENT_SIZE, so
+     * the segments can be used as a writable copy of the file.
+     * @param file the file.
+     * @return the segments.
+     * @throws IOException if reading failed.
+     */
+    public static final ByteBuffer[] readSegments(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            int count = (int) Math.max(1, (size + MAPPING_SEGMENT_SIZE - 1) / MAPPING_SEGMENT_SIZE);
+            ByteBuffer[] segments = new ByteBuffer[count];
+            for (int t = 0; t < count; t++) {
+                long ofs = (long) t * MAPPING_SEGMENT_SIZE;
+                ByteBuffer segment = ByteBuffer.allocate((int) Math.min(MAPPING_SEGMENT_SIZE, size - ofs));
+                while (segment.hasRemaining()) {
+                    if (channel.read(segment, ofs + segment.position()) < 0) {
+                        throw new IOException("Unexpected end of file " + file);
+                    }
+                }
+                segment.flip();
+                segments[t] = segment;
+            }
+            return segments;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @param file the file.
+     * @return true if the file is too large to be read into a byte array.
+     */
+    public static final boolean exceedsArraySize(File file) {
+        return file.length() > ((long) Integer.MAX_VALUE);
+    }
+
     /**
      * decrypts the bytes using the given password.
      * @param the bytes to decrypt.
@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.cad.tpsparse.tps.TpsFile;
+import nl.cad.tpsparse.tps.record.Projection;
+import nl.cad.tpsparse.tps.record.TableDefinitionRecord;
+
+/**
+ * MainTest.
+ * @author E.Hooijmeijer
+ */
+public class MainTest {
+
+    private Map<Integer, TableDefinitionRecord> tables;
+
+    @Before
+    public void init() throws IOException {
+        // two tables with different fields, CON1 (OUDNR, NEWNR) and one with TIJD.
+        tables = new LinkedHashMap<>();
+        tables.put(1, new TpsFile(MainTest.class.getResourceAsStream("/table.tps")).getTableDefinitions(false).get(1));
+        tables.put(2, new TpsFile(MainTest.class.getResourceAsStream("/enc/encrypted-a.tps"), "a").getTableDefinitions(false).get(2));
+    }
+
+    @Test
+    public void shouldMatchColumnsPerTable() {
+        assertEquals(Arrays.asList(1), Arrays.asList(Main.selectTables(tables, Arrays.asList("OUDNR"), null).keySet().toArray()));
+        assertEquals(Arrays.asList(2), Arrays.asList(Main.selectTables(tables, Arrays.asList("TIJD"), null).keySet().toArray()));
+        assertEquals(2, Main.selectTables(tables, Arrays.asList("NEWNR", "TIJD"), null).size());
+        assertEquals(2, Main.selectTables(tables, null, null).size());
+        assertArrayEquals(new int[] { 1 }, Projection.matching(tables.get(1), Arrays.asList("TIJD", "NEWNR")).getFields());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectColumnsNotInAnyTable() {
+        Main.selectTables(tables, Arrays.asList("NEWNR", "NOPE"), null);
+    }
+
+    @Test
+    public void shouldSkipTablesWithoutConditionField() {
+        Map<Integer, TableDefinitionRecord> selected = Main.selectTables(tables, null, Arrays.asList("TIJD=08:00..12:00"));
+        assertEquals(Arrays.asList(2), Arrays.asList(selected.keySet().toArray()));
+        assertEquals(0, Main.selectTables(tables, Arrays.asList("NEWNR"), Arrays.asList("TIJD=08:00")).size());
+        assertEquals(1, Main.selectTables(tables, null, Arrays.asList("con1:newnr=1", "OUDNR=1..")).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectConditionNotInAnyTable() {
+        Main.selectTables(tables, null, Arrays.asList("NOPE=1"));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+public class BinaryCodedDecimalTest {
+
+    @Test
+    public void shouldDecodeUnscaled() {
+        assertEquals(0L, BinaryCodedDecimal.unscaled(new byte[] { 0x00, 0x00 }, 0, 2));
+        assertEquals(979L, BinaryCodedDecimal.unscaled(new byte[] { 0x09, 0x79 }, 0, 2));
+        assertEquals(-123L, BinaryCodedDecimal.unscaled(new byte[] { (byte) 0xF1, 0x23 }, 0, 2));
+        assertEquals(123L, BinaryCodedDecimal.unscaled(new byte[] { 0x7F, 0x01, 0x23 }, 1, 2));
+        assertEquals(99999999999999999L, BinaryCodedDecimal.unscaled(new byte[] { 0x09, (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x99,
+                (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x99 }, 0, 9));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void shouldRejectBadDigits() {
+        BinaryCodedDecimal.unscaled(new byte[] { 0x01, 0x2A }, 0, 2);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void shouldRejectTooManyDigitsForLong() {
+        BinaryCodedDecimal.unscaled(new byte[10], 0, 10);
+    }
+
+    @Test
+    public void shouldDecodeBigDecimal() {
+        assertEquals(new BigDecimal("-1.23"), BinaryCodedDecimal.toBigDecimal(new byte[] { (byte) 0xF1, 0x23 }, 0, 2, 2));
+        assertEquals(new BigDecimal("0.00000000"), BinaryCodedDecimal.toBigDecimal(new byte[7], 0, 7, 8));
+        assertEquals(new BigDecimal("1234567890123456789.01"),
+                BinaryCodedDecimal.toBigDecimal(new byte[] { 0x01, 0x23, 0x45, 0x67, (byte) 0x89, 0x01, 0x23, 0x45, 0x67, (byte) 0x89, 0x01 }, 0, 11,
+                        2));
+    }
+
+    @Test
+    public void shouldFormat() {
+        char[] out = new char[32];
+        out[0] = '[';
+        int end = BinaryCodedDecimal.format(new byte[] { 0x00, 0x01, 0x00 }, 0, 3, 1, out, 1);
+        assertEquals("[10.0", new String(out, 0, end));
+        assertEquals("0.0", BinaryCodedDecimal.toString(new byte[] { 0x00, 0x00 }, 0, 2, 1));
+        assertEquals("-0.00123", BinaryCodedDecimal.toString(new byte[] { (byte) 0xF1, 0x23 }, 0, 2, 5));
+        assertEquals("12a", BinaryCodedDecimal.toString(new byte[] { 0x01, 0x2A }, 0, 2, 0));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2021 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChannelByteSourceTest {
+
+    private File file;
+    private RandomAccessFile raf;
+
+    @Before
+    public void init() throws IOException {
+        file = File.createTempFile("channel", ".bin");
+        byte[] data = new byte[100];
+        for (int t = 0; t < data.length; t++) {
+            data[t] = (byte) t;
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        raf = new RandomAccessFile(file, "r");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        raf.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldReadAcrossPages() throws IOException {
+        ChannelByteSource source = new ChannelByteSource(raf.getChannel(), 16, 2);
+        assertEquals(100, source.length());
+        assertEquals(0, source.get(0));
+        assertEquals(99, source.get(99));
+        byte[] tmp = new byte[4];
+        source.get(30, tmp, 0, 4);
+        assertArrayEquals(new byte[] { 30, 31, 32, 33 }, tmp);
+        assertEquals(0x1F1E1D1C, new RandomAccess(source).jumpAbs(28).leLong());
+        // page 0 was evicted and needs to be read again.
+        assertEquals(5, source.get(5));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldBeReadOnly() throws IOException {
+        new ChannelByteSource(raf.getChannel()).put(0, (byte) 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRequirePowerOfTwoPages() throws IOException {
+        new ChannelByteSource(raf.getChannel(), 100, 2);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import org.junit.Test;
+
+public class PackedDateTimeTest {
+
+    @Test
+    public void shouldConvertToEpochDay() {
+        assertEquals(0, PackedDateTime.epochDay(1970, 1, 1));
+        assertEquals(LocalDate.of(2012, 2, 29).toEpochDay(), PackedDateTime.epochDay(2012, 2, 29));
+        assertEquals(-719528, PackedDateTime.epochDay(0, 1, 1));
+        assertEquals(LocalDate.of(2013, 12, 31).toEpochDay(), PackedDateTime.epochDay(0x07DD0C1F));
+    }
+
+    @Test
+    public void shouldFormatDates() {
+        assertEquals("2013-12-31", PackedDateTime.formatDate(0x07DD0C1F));
+        assertEquals("0999-01-02", PackedDateTime.formatDate(0x03E70102));
+        assertNull(PackedDateTime.formatDate(0));
+        assertEquals(LocalDate.of(2013, 12, 31), PackedDateTime.toLocalDate(0x07DD0C1F));
+        assertNull(PackedDateTime.toLocalDate(0));
+    }
+
+    @Test
+    public void shouldFormatTimes() {
+        assertEquals(9 * 60 + 5, PackedDateTime.minuteOfDay(0x09050000));
+        assertEquals(23 * 60 + 59, PackedDateTime.minuteOfDay(0x973B1234));
+        assertEquals("09:05", PackedDateTime.formatTime(9 * 60 + 5));
+        assertEquals("00:00", PackedDateTime.formatTime(0));
+        assertEquals(LocalTime.of(23, 59), PackedDateTime.toLocalTime(23 * 60 + 59));
+    }
+
+    @Test
+    public void shouldParse() {
+        assertEquals(0x07DD0C1F, PackedDateTime.parseDate("2013-12-31"));
+        assertEquals(0x03E70102, PackedDateTime.parseDate("0999-01-02"));
+        assertEquals(0x09050000, PackedDateTime.parseTime("09:05"));
+        assertEquals(0x173B0000, PackedDateTime.parseTime("23:59:30"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidDate() {
+        PackedDateTime.parseDate("2013-02-29");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidTime() {
+        PackedDateTime.parseTime("9:75");
+    }
+
+    @Test
+    public void shouldValidate() {
+        assertTrue(PackedDateTime.isValidDate(0x07D0021D));
+        assertFalse(PackedDateTime.isValidDate(0x076C021D));
+        assertFalse(PackedDateTime.isValidDate(0x07DD0D01));
+        assertFalse(PackedDateTime.isValidDate(0x07DD0C00));
+        assertFalse(PackedDateTime.isValidDate(0x07DD0B1F));
+        assertTrue(PackedDateTime.isValidTime(0x173B0000));
+        assertFalse(PackedDateTime.isValidTime(0x18000000));
+        assertFalse(PackedDateTime.isValidTime(0x0A460000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotFormatInvalidDate() {
+        PackedDateTime.formatDate(0x07DD0D01);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotConvertInvalidTime() {
+        PackedDateTime.minuteOfDay(0x0A460000);
+    }
+}
@@ -15,9 +15,12 @@
  */
 package nl.cad.tpsparse.bin;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import org.junit.Test;
@@ -140,6 +143,96 @@ public class RandomAccessTest {
         assertEquals(4, read2.leByte());
     }
 
+    @Test
+    public void shouldReadDirectBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(6);
+        buffer.put(new byte[] { 0x04, 0x03, 0x02, 0x01, 0x20, 0x21 });
+        RandomAccess rx = new RandomAccess(buffer);
+        assertEquals(6, rx.length());
+        assertEquals(0x01020304, rx.leLong());
+        assertEquals(" !", rx.read(2).fixedLengthString(2));
+        rx.jumpAbs(0);
+        rx.setBytes(new byte[] { 0x01 });
+        assertEquals(0x01, rx.data()[0]);
+    }
+
+    @Test
+    public void shouldReadAcrossSegments() {
+        ByteBuffer[] segments = new ByteBuffer[] { ByteBuffer.wrap(new byte[] { 0x01, 0x02, 0x03, 0x04 }), ByteBuffer.wrap(new byte[] { 0x05, 0x06 }) };
+        RandomAccess rx = new RandomAccess(segments);
+        assertEquals(6, rx.length());
+        rx.jumpAbs(2);
+        assertEquals(0x06050403, rx.leLong());
+        rx.jumpAbs(1);
+        RandomAccess read = rx.read(4);
+        assertEquals(0x02030405, read.beLong());
+        assertEquals(0x0304, read.jumpAbs(1).beShort());
+        rx.jumpAbs(3);
+        rx.setBytes(new byte[] { 0x14, 0x15 });
+        assertEquals(0x0102031415060000L, ((long) rx.jumpAbs(0).beLong() << 32) | ((long) rx.beShort() << 16));
+    }
+
+    @Test
+    public void shouldConvertLargePageReferences() {
+        RandomAccess rx = new RandomAccess(new byte[0]);
+        assertEquals(0x0300L, rx.toFileOffset(0x01));
+        assertEquals(0xFFFFFFFF00L + 0x200L, rx.toFileOffset(0xFFFFFFFF));
+    }
+
+    @Test
+    public void shouldNestPositions() {
+        RandomAccess rx = new RandomAccess(new byte[16]);
+        for (int t = 0; t < 10; t++) {
+            rx.jumpAbs(t);
+            rx.pushPosition();
+        }
+        for (int t = 9; t >= 0; t--) {
+            rx.popPosition();
+            assertEquals(t, rx.position());
+        }
+    }
+
+    @Test
+    public void shouldPeekWithoutMoving() {
+        RandomAccess rx = new RandomAccess(new byte[] { 0x01, 0x02, 0x03, 0x04, (byte) 0x85, (byte) 0x86 });
+        rx.leByte();
+        assertEquals(0x86850403L, rx.peekLeULong(2));
+        assertEquals(0x0302, rx.peekLeShort(1));
+        assertEquals(1, rx.position());
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void shouldFailPeekBeyondBuffer() {
+        new RandomAccess(new byte[] { 1, 2, 3, 4 }).read(3).peekLeULong(0);
+    }
+
+    @Test
+    public void shouldReuseView() {
+        RandomAccess rx = new RandomAccess(new byte[] { 0x01, 0x02, 0x03, 0x04, 0x05 });
+        RandomAccess view = new RandomAccess(new byte[0]);
+        assertSame(view, rx.read(2, view));
+        assertEquals(0x0102, view.beShort());
+        assertTrue(view.isAtEnd());
+        assertSame(view, rx.read(3, view));
+        assertEquals(3, view.length());
+        assertEquals(0x030405, (view.beShort() << 8) | view.beByte());
+        assertEquals(5, rx.position());
+    }
+
+    @Test
+    public void shouldReadPrefixedView() {
+        RandomAccess rx = new RandomAccess(new byte[] { 0x01, 0x02, 0x03, 0x04, 0x05 });
+        rx.leByte();
+        RandomAccess joined = rx.read(3).prepend(new byte[] { 0x0A, 0x0B });
+        assertEquals(5, joined.length());
+        assertEquals(0x0B02, joined.jumpAbs(1).beShort());
+        assertArrayEquals(new byte[] { 0x0A, 0x0B, 0x02, 0x03, 0x04 }, joined.jumpAbs(0).remainder());
+        byte[] copy = new byte[3];
+        joined.peekBytes(1, copy, 0, 3);
+        assertEquals(0x0B, copy[0]);
+        assertEquals(0x03, copy[2]);
+    }
+
     @Test(expected = ArrayIndexOutOfBoundsException.class)
     public void shouldFailBeyondBuffer() {
         RandomAccess rx = new RandomAccess(new byte[] { 1, 2, 3, 4 });
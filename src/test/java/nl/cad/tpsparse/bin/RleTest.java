@@ -16,6 +16,7 @@
 package nl.cad.tpsparse.bin;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import nl.cad.tpsparse.bin.RandomAccess;
 
 import org.junit.Test;
@@ -73,4 +74,21 @@ public class RleTest {
         RandomAccess deRle = new RandomAccess(new byte[0]).deRle(new RandomAccess(block));
         assertEquals(129, deRle.length());
     }
+
+    @Test
+    public void shouldDeRleIntoExactBuffer() {
+        byte[] block = new byte[] { 0x01, 0x31, 0x07, 0x02, 0x32, 0x33, 0x03 };
+        byte[] target = new byte[13];
+        RandomAccess deRle = new RandomAccess(new byte[0]).deRle(new RandomAccess(block), target);
+        assertSame(target, deRle.data());
+        assertEquals("1111111123333", deRle.toAscii());
+    }
+
+    @Test
+    public void shouldGrowTooSmallBuffer() {
+        byte[] block = new byte[] { 0x01, 0x31, 0x07, 0x02, 0x32, 0x33, 0x03 };
+        RandomAccess deRle = new RandomAccess(new byte[0]).deRle(new RandomAccess(block), new byte[4]);
+        assertEquals(13, deRle.length());
+        assertEquals("1111111123333", deRle.toAscii());
+    }
 }
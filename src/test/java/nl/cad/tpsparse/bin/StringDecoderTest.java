@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.bin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class StringDecoderTest {
+
+    @Test
+    public void shouldDecodeLikeTheCharset() {
+        byte[] all = new byte[256];
+        for (int t = 0; t < all.length; t++) {
+            all[t] = (byte) t;
+        }
+        for (String name : new String[] { "ISO-8859-1", "cp850", "cp1252" }) {
+            Charset charset = Charset.forName(name);
+            StringDecoder decoder = new StringDecoder(charset);
+            assertTrue(name, decoder.isSingleByte());
+            assertEquals(name, new String(all, 16, 200, charset), decoder.decode(all, 16, 200));
+        }
+        assertFalse(new StringDecoder(Charset.forName("UTF-8")).isSingleByte());
+        assertEquals("h\u00e9", new StringDecoder(Charset.forName("UTF-8")).decode(new byte[] { 'h', (byte) 0xC3, (byte) 0xA9 }, 0, 3));
+    }
+
+    @Test
+    public void shouldTrimFixedLengthStrings() {
+        byte[] data = "xab  c   ".getBytes(Charset.forName("ISO-8859-1"));
+        assertEquals("ab  c   ", new StringDecoder(Charset.forName("ISO-8859-1")).decodeFixed(data, 1, 8, null));
+        StringDecoder trim = new StringDecoder(Charset.forName("cp850"), true, 0);
+        assertEquals("ab  c", trim.decodeFixed(data, 1, 8, null));
+        assertEquals("", trim.decodeFixed(data, 6, 3, null));
+        assertNull(trim.newDictionary());
+    }
+
+    @Test
+    public void shouldShareStrings() {
+        byte[] data = "ABAB".getBytes(Charset.forName("ISO-8859-1"));
+        StringDecoder decoder = new StringDecoder(Charset.forName("ISO-8859-1"), false, 1);
+        StringDictionary dictionary = decoder.newDictionary();
+        String ab = decoder.decode(data, 0, 2, dictionary);
+        assertSame(ab, decoder.decode(data, 2, 2, dictionary));
+        // the dictionary is full.
+        String ba = decoder.decode(data, 1, 2, dictionary);
+        assertEquals("BA", ba);
+        assertNotSame(ba, decoder.decode(data, 1, 2, dictionary));
+        assertTrue(dictionary.isFull());
+        assertEquals(1, dictionary.size());
+    }
+}
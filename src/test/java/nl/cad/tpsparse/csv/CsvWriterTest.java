@@ -17,6 +17,8 @@ package nl.cad.tpsparse.csv;
 
 import static org.junit.Assert.assertEquals;
 
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
 import org.junit.Test;
 
 /**
@@ -55,4 +57,42 @@ public class CsvWriterTest {
         //
         assertEquals("\"a\",\"b\",\"c\"" + LS + "\"1\",\" \"\"2\"\" \",\"3\"" + LS, wr.toString());
     }
+
+    @Test
+    public void shouldWriteDatesAndTimes() {
+        CsvWriter wr = new BufferingCsvWriter(',', '"');
+        wr.addColumn("a");
+        wr.addColumn("b");
+        wr.addColumn("c");
+        wr.addColumn("d");
+        wr.addColumn("e");
+        wr.newRow();
+        wr.addDate(0x07DD0C1F);
+        wr.addDate(0);
+        wr.addTime(9 * 60 + 5);
+        wr.addCell(new LocalDate(2013, 12, 31));
+        wr.addCell(new LocalTime(9, 5));
+        wr.newRow();
+        //
+        assertEquals("\"a\",\"b\",\"c\",\"d\",\"e\"" + LS + "2013-12-31,,09:05,2013-12-31,09:05" + LS, wr.toString());
+    }
+
+    @Test
+    public void shouldQuoteDatesContainingTheSeparator() {
+        CsvWriter wr = new BufferingCsvWriter('-', '"');
+        wr.addColumn("a");
+        wr.newRow();
+        wr.addDate(0x07DD0C1F);
+        wr.newRow();
+        //
+        assertEquals("\"a\"" + LS + "\"2013-12-31\"" + LS, wr.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidDate() {
+        CsvWriter wr = new BufferingCsvWriter(',', '"');
+        wr.addColumn("a");
+        wr.newRow();
+        wr.addDate(0x07DD0D01);
+    }
 }
@@ -16,10 +16,14 @@
 package nl.cad.tpsparse.tps;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
 import nl.cad.tpsparse.bin.RandomAccess;
+import nl.cad.tpsparse.bin.RunLengthEncodingException;
 
 /**
  * @author E.Hooijmeijer
@@ -83,4 +87,86 @@ public class TpsBlockTest {
         assertEquals(0x200, data.getPages().get(0).getPageSize());
     }
 
+    @Test
+    public void shouldSkipOverwrittenBlockAtNonZeroStart() {
+        RandomAccess block = new RandomAccess(new byte[8 * 256]);
+        block.jumpAbs(0x0200);
+        block.setLeLong(0x0200);
+        block.setLeLong(0x0300);
+
+        block.jumpAbs(0x0300); // Inside the previous block!
+        block.setLeLong(0x0300);
+        block.setLeLong(0x0100);
+
+        block.jumpAbs(0x0600);
+        block.setLeLong(0x0600);
+        block.setLeLong(0x0200); // Extends beyond the end of the block.
+
+        TpsBlock data = new TpsBlock(block, 0x0200, 0x0700, false);
+        assertEquals(2, data.getPages().size());
+        assertEquals(0x300, data.getPages().get(0).getAddr());
+        assertEquals(0x600, data.getPages().get(1).getAddr());
+    }
+
+    @Test
+    public void shouldKeepPageTable() {
+        RandomAccess block = new RandomAccess(new byte[4 * 256]);
+        block.setLeLong(0);
+        block.setBytes(new byte[] { 0x00, 0x02, 0x00, 0x03, (byte) 0x80, 0x02, 0x07, 0x00 });
+
+        TpsBlock data = new TpsBlock(block, 0, 0x0200, false);
+        assertEquals(1, data.getPageCount());
+        assertEquals(0, data.getPageOffset(0));
+        TpsPage page = data.getPage(0);
+        assertEquals(0x0300, page.getPageSizeUncompressed());
+        assertEquals(0x0280, page.getPageSizeUncompressedWithoutHeader());
+        assertEquals(7, page.getRecordCount());
+        assertNotSame(page, data.getPage(0));
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void shouldFailOnPageBeyondEndOfFile() {
+        new TpsBlock(pageBeyondEndOfFile(), 0, 0x0200, false);
+    }
+
+    @Test
+    public void shouldIgnorePageBeyondEndOfFile() {
+        TpsBlock data = new TpsBlock(pageBeyondEndOfFile(), 0, 0x0200, true);
+        assertEquals(1, data.getPageCount());
+        assertEquals(0, data.getPageOffset(0));
+        data = new TpsBlock(pageBeyondEndOfFile(), 0, 0x0200, new long[] { 0, 0x0100 }, true);
+        assertEquals(1, data.getPageCount());
+    }
+
+    private RandomAccess pageBeyondEndOfFile() {
+        RandomAccess block = new RandomAccess(new byte[2 * 256]);
+        block.setLeLong(0);
+        block.setLeLong(0x0100);
+        block.jumpAbs(0x0100);
+        block.setLeLong(0x0100);
+        block.setLeLong(0x0200);
+        return block;
+    }
+
+    @Test(expected = RunLengthEncodingException.class)
+    public void shouldFailOnBadRle() {
+        new TpsBlock(badRle(), 0, 0x0100, false).getPage(0).getRecords(new RecordFilter(RecordFilter.DATA, 1));
+    }
+
+    @Test
+    public void shouldIgnoreBadRle() {
+        TpsPage page = new TpsBlock(badRle(), 0, 0x0100, true).getPage(0);
+        assertFalse(page.hasRecords());
+        assertTrue(page.getRecords(new RecordFilter(RecordFilter.DATA, 1)).isEmpty());
+        page.parseRecords();
+        assertTrue(page.getRecords().isEmpty());
+    }
+
+    private RandomAccess badRle() {
+        // a compressed page starting with a 0x00 skip.
+        RandomAccess block = new RandomAccess(new byte[256]);
+        block.setLeLong(0);
+        block.setBytes(new byte[] { 0x00, 0x01, 0x00, 0x02, 0x00, 0x02, 0x01, 0x00 });
+        return block;
+    }
 }
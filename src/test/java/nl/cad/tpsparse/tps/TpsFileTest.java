@@ -16,16 +16,37 @@
 package nl.cad.tpsparse.tps;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
+import nl.cad.tpsparse.bin.ChannelByteSource;
+import nl.cad.tpsparse.bin.RandomAccess;
+import nl.cad.tpsparse.tps.header.DataHeader;
+import nl.cad.tpsparse.tps.header.MemoHeader;
 import nl.cad.tpsparse.tps.record.DataRecord;
 import nl.cad.tpsparse.tps.record.FieldDefinitionRecord;
 import nl.cad.tpsparse.tps.record.IndexRecord;
+import nl.cad.tpsparse.tps.record.MemoRecord;
+import nl.cad.tpsparse.tps.record.Projection;
+import nl.cad.tpsparse.tps.record.RowPredicate;
 import nl.cad.tpsparse.tps.record.TableDefinitionRecord;
+import nl.cad.tpsparse.tps.record.TableNameRecord;
 
+import org.joda.time.LocalTime;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -80,6 +101,366 @@ public class TpsFileTest {
         assertEquals(Integer.valueOf(1), dataRecords.get(0).getValues().get(1));
     }
 
+    @Test
+    @SuppressWarnings("deprecation")
+    public void shouldParseFieldThroughRowDecoder() {
+        TableDefinitionRecord def = file.getTableDefinitions(false).get(1);
+        DataRecord record = file.getDataRecords(1, def, false).get(0);
+        for (int t = 0; t < def.getFields().size(); t++) {
+            FieldDefinitionRecord field = def.getFields().get(t);
+            assertEquals(record.getValue(t),
+                    def.parseField(field.getFieldType(), field.getOffset(), field.getLength(), field, new RandomAccess(record.getRaw())));
+        }
+    }
+
+    @Test
+    public void shouldParseMappedFile() throws IOException {
+        TpsFile mapped = new TpsFile(new File("./src/test/resources/table.tps"), true);
+        assertEquals(10, mapped.getAllRecords().size());
+        Map<Integer, TableDefinitionRecord> tableDefinitions = mapped.getTableDefinitions(false);
+        List<DataRecord> dataRecords = mapped.getDataRecords(1, tableDefinitions.get(1), false);
+        assertEquals(1, dataRecords.size());
+        assertEquals(Integer.valueOf(1), dataRecords.get(0).getValues().get(0));
+    }
+
+    @Test
+    public void shouldParseFileThroughChannel() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile("./src/test/resources/table.tps", "r");
+        try {
+            TpsFile channel = new TpsFile(new ChannelByteSource(raf.getChannel(), 0x100, 4));
+            assertEquals(10, channel.getAllRecords().size());
+            assertEquals(1, channel.getTableDefinitions(false).size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void shouldDiscoverPagesInParallel() {
+        List<TpsBlock> sequential = file.getTpsBlocks(false);
+        file.setParallelism(4);
+        List<TpsBlock> parallel = file.getTpsBlocks(false);
+        assertEquals(sequential.size(), parallel.size());
+        for (int t = 0; t < sequential.size(); t++) {
+            assertEquals(sequential.get(t).toString(), parallel.get(t).toString());
+        }
+        assertEquals(10, file.getAllRecords().size());
+        file.close();
+        assertEquals(10, file.getAllRecords().size());
+    }
+
+    @Test
+    public void shouldVisitInParallel() {
+        List<TpsRecord> sequential = file.getAllRecords();
+        final List<TpsRecord> parallel = new ArrayList<>();
+        TpsFile.Visitor collector = new TpsFile.Visitor() {
+            @Override
+            public void onTpsRecord(TpsRecord record) {
+                parallel.add(record);
+            }
+        };
+        file.setParallelism(4);
+        file.visit(collector, false);
+        assertEquals(sequential.size(), parallel.size());
+        for (int t = 0; t < sequential.size(); t++) {
+            assertEquals(sequential.get(t).toString(), parallel.get(t).toString());
+        }
+        parallel.clear();
+        file.setOrdered(false);
+        file.visit(collector, new RecordFilter(RecordFilter.DATA, 1), false);
+        assertEquals(file.getDataRecords(1, file.getTableDefinitions(false).get(1), false).size(), parallel.size());
+        // a failing visitor stops the visit, the pages still in flight are cancelled.
+        try {
+            file.visit(new TpsFile.Visitor() {
+                @Override
+                public void onTpsRecord(TpsRecord record) {
+                    throw new IllegalStateException("stop");
+                }
+            }, null, false);
+            fail();
+        } catch (IllegalStateException ex) {
+            assertEquals("stop", ex.getMessage());
+        }
+        parallel.clear();
+        file.visit(collector, null, false);
+        assertEquals(sequential.size(), parallel.size());
+        file.setParallelism(1);
+    }
+
+    @Test
+    public void shouldStreamDataRecords() {
+        TableDefinitionRecord def = file.getTableDefinitions(false).get(1);
+        List<DataRecord> records = file.getDataRecords(1, def, false);
+        List<DataRecord> streamed = file.streamDataRecords(1, def, false).collect(Collectors.<DataRecord> toList());
+        assertEquals(records.size(), streamed.size());
+        for (int t = 0; t < records.size(); t++) {
+            assertEquals(records.get(t).getRecordNumber(), streamed.get(t).getRecordNumber());
+            assertEquals(records.get(t).getValues(), streamed.get(t).getValues());
+        }
+        assertEquals(records.size(), file.streamDataRecords(1, def, false).parallel().count());
+        assertEquals(1, file.streamDataRecords(1, def, false).limit(1).count());
+        assertEquals(0, file.streamDataRecords(2, def, false).count());
+        Spliterator<DataRecord> split = file.streamDataRecords(1, def, false).spliterator();
+        long estimate = split.estimateSize();
+        assertTrue(estimate >= records.size());
+        Spliterator<DataRecord> prefix = split.trySplit();
+        if (prefix != null) {
+            assertEquals(estimate, prefix.estimateSize() + split.estimateSize());
+        }
+    }
+
+    @Test
+    public void shouldDecodeFieldsOnDemand() {
+        TableDefinitionRecord def = file.getTableDefinitions(false).get(1);
+        List<DataRecord> eager = file.getDataRecords(1, def, false);
+        List<DataRecord> lazy = file.getDataRecords(1, def, false);
+        for (int t = 0; t < eager.size(); t++) {
+            assertEquals(eager.get(t).getValues().get(1), lazy.get(t).getValue(1));
+            assertEquals(eager.get(t).getValues(), lazy.get(t).getValues());
+        }
+    }
+
+    @Test
+    public void shouldDecodeProjectedFields() {
+        TableDefinitionRecord def = file.getTableDefinitions(false).get(1);
+        List<DataRecord> records = file.getDataRecords(1, def, false);
+        List<DataRecord> projected = file.getDataRecords(1, def, Projection.byName(def, Arrays.asList("newnr")), false);
+        assertEquals(records.size(), projected.size());
+        for (int t = 0; t < records.size(); t++) {
+            assertEquals(1, projected.get(t).getValues().size());
+            assertEquals(records.get(t).getValues().get(1), projected.get(t).getValues().get(0));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownColumn() {
+        TableDefinitionRecord def = file.getTableDefinitions(false).get(1);
+        Projection.byName(def, Arrays.asList("CON1:NOPE"));
+    }
+
+    @Test
+    public void shouldFilterRowsBeforeDecoding() {
+        TableDefinitionRecord def = file.getTableDefinitions(false).get(1);
+        DataRecord first = file.getDataRecords(1, def, false).get(0);
+        String newnr = String.valueOf(first.getValues().get(1));
+        List<DataRecord> matching = file.getDataRecords(1, def, null, RowPredicate.parse(def, "NEWNR=" + newnr), false);
+        assertEquals(1, matching.size());
+        assertEquals(first.getRecordNumber(), matching.get(0).getRecordNumber());
+        assertEquals(1, file.getDataRecords(1, def, null, RowPredicate.parse(def, "newnr=0|" + newnr), false).size());
+        assertEquals(0, file.getDataRecords(1, def, null, RowPredicate.parse(def, "con1:newnr=" + newnr + "1.."), false).size());
+    }
+
+    @Test
+    public void shouldFilterRowsOnTime() throws IOException {
+        TpsFile enc = new TpsFile(TpsFileTest.class.getResourceAsStream("/enc/encrypted-a.tps"), "a");
+        TableDefinitionRecord def = enc.getTableDefinitions(false).get(2);
+        int tijd = Projection.byName(def, Arrays.asList("TIJD")).getFields()[0];
+        int expected = 0;
+        for (DataRecord record : enc.getDataRecords(2, def, false)) {
+            LocalTime time = (LocalTime) record.getValue(tijd);
+            if (!time.isBefore(new LocalTime(8, 0)) && !time.isAfter(new LocalTime(12, 0))) {
+                expected++;
+            }
+        }
+        assertTrue(expected > 0);
+        assertEquals(expected, enc.getDataRecords(2, def, null, RowPredicate.parse(def, "TIJD=08:00..12:00"), false).size());
+        assertEquals(expected, enc.getDataRecords(2, def, null, RowPredicate.parse(def, "TIJD=08:00:00..12:00:59"), false).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidTimeInCondition() throws IOException {
+        TpsFile enc = new TpsFile(TpsFileTest.class.getResourceAsStream("/enc/encrypted-a.tps"), "a");
+        RowPredicate.parse(enc.getTableDefinitions(false).get(2), "TIJD=24:10");
+    }
+
+    @Test
+    public void shouldReadRowsThroughCursor() {
+        TableDefinitionRecord def = file.getTableDefinitions(false).get(1);
+        List<DataRecord> records = file.getDataRecords(1, def, false);
+        RowCursor cursor = file.openRowCursor(1, def, false);
+        for (DataRecord record : records) {
+            assertTrue(cursor.next());
+            assertEquals(record.getRecordNumber(), cursor.getRecordNumber());
+            assertEquals(record.getValues().get(0), cursor.getInt(0));
+            assertEquals(((Integer) record.getValues().get(1)).longValue(), cursor.getLong(1));
+            assertEquals(((Integer) record.getValues().get(1)).doubleValue(), cursor.getDouble(1), 0.0);
+        }
+        assertFalse(cursor.next());
+        assertFalse(file.openRowCursor(2, def, false).next());
+    }
+
+    @Test
+    public void shouldDecodeColumnBatches() {
+        TableDefinitionRecord def = file.getTableDefinitions(false).get(1);
+        List<DataRecord> records = file.getDataRecords(1, def, false);
+        RowCursor cursor = file.openRowCursor(1, def, false);
+        ColumnBatch batch = new ColumnBatch(def, 4);
+        int row = 0;
+        while (batch.fill(cursor) > 0) {
+            assertEquals(ColumnBatch.INT, batch.getKind(0));
+            for (int t = 0; t < batch.getSize(); t++, row++) {
+                assertEquals(records.get(row).getRecordNumber(), batch.getRecordNumbers()[t]);
+                assertEquals(records.get(row).getValues().get(0), batch.getInts(0)[t]);
+                assertEquals(records.get(row).getValues().get(1), batch.getInts(1)[t]);
+                assertFalse(batch.isNull(0, t));
+            }
+        }
+        assertEquals(records.size(), row);
+    }
+
+    @Test
+    public void shouldVisitFilteredRecords() {
+        final List<TpsRecord> filtered = new ArrayList<>();
+        TpsFile.Visitor collector = new TpsFile.Visitor() {
+            @Override
+            public void onTpsRecord(TpsRecord record) {
+                filtered.add(record);
+            }
+        };
+        file.visit(collector, new RecordFilter(RecordFilter.DATA, 1), false);
+        assertEquals(file.getDataRecords(1, file.getTableDefinitions(false).get(1), false).size(), filtered.size());
+        for (TpsRecord record : filtered) {
+            assertTrue(record.getHeader() instanceof DataHeader);
+        }
+        filtered.clear();
+        file.visit(collector, new RecordFilter(RecordFilter.DATA, 2), false);
+        assertEquals(0, filtered.size());
+        file.visit(collector, RecordFilter.ALL, false);
+        assertEquals(10, filtered.size());
+        filtered.clear();
+        file.visit(collector, new RecordFilter(RecordFilter.INDEX, 1), false);
+        assertEquals(file.getIndexes(1, -1).size(), filtered.size());
+    }
+
+    @Test
+    public void shouldFeedAllConsumersInOnePass() {
+        TableDefinitionRecord def = file.getTableDefinitions(false).get(1);
+        PageCache cache = new PageCache(1024 * 1024);
+        file.setPageCache(cache);
+        //
+        ScanPlan plan = new ScanPlan();
+        TableDefinitionCollector defs = plan.add(file.newTableDefinitionCollector());
+        DataRecordCollector data = plan.add(new DataRecordCollector(1, def));
+        IndexCollector index = plan.add(new IndexCollector(1, 0));
+        final List<TableNameRecord> names = new ArrayList<>();
+        plan.add(new RecordFilter(RecordFilter.TABLE_NAME, RecordFilter.ANY), new TpsFile.Visitor() {
+            @Override
+            public void onTpsRecord(TpsRecord record) {
+                names.add(new TableNameRecord(record));
+            }
+        });
+        file.scan(plan, false);
+        //
+        assertEquals(0, cache.getHits());
+        assertEquals(2, defs.getResult().get(1).getFields().size());
+        assertEquals(file.getDataRecords(1, def, false).size(), data.getResult().size());
+        assertEquals(file.getIndexRecordIds(1, 0), index.getRecordIds());
+        assertEquals(1, names.size());
+        assertEquals(1, names.get(0).getTableNumber());
+    }
+
+    @Test
+    public void shouldReuseCachedPages() {
+        PageCache cache = new PageCache(1024 * 1024);
+        file.setPageCache(cache);
+        assertEquals(10, file.getAllRecords().size());
+        long misses = cache.getMisses();
+        assertTrue(cache.getSize() > 0);
+        //
+        for (int t = 0; t < 2; t++) {
+            assertEquals(1, file.getTableNameRecords().get(0).getTableNumber());
+            assertEquals(2, file.getTableDefinitions(false).get(1).getFields().size());
+        }
+        assertEquals(misses, cache.getMisses());
+        assertTrue(cache.getHits() > 0);
+    }
+
+    @Test
+    public void shouldEvictPagesBeyondBudget() {
+        PageCache cache = new PageCache(16);
+        file.setPageCache(cache);
+        assertEquals(10, file.getAllRecords().size());
+        assertEquals(10, file.getAllRecords().size());
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void shouldWeighCachedPagesByTheirBuffers() {
+        TpsPage page = new TpsFile(memoPage(memo(1, 0, 0, "Hel"), memo(1, 0, 1, "lo"))).getPageAt(0, false);
+        assertFalse(page.isCompressed());
+        PageCache cache = new PageCache(1024);
+        // the records are views on the file, so only the records themselves count.
+        cache.put(0, page.getRecords(), 0);
+        assertEquals(2 * PageCache.RECORD_OVERHEAD, cache.getSize());
+        cache.put(0x100, page.getRecords(), 100);
+        assertEquals(4 * PageCache.RECORD_OVERHEAD + 100, cache.getSize());
+    }
+
+    @Test
+    public void shouldReopenWithPageIndex() throws IOException {
+        File tmp = File.createTempFile("table", ".tps");
+        File sidecar = PageIndex.sidecarOf(tmp);
+        tmp.deleteOnExit();
+        sidecar.deleteOnExit();
+        Files.copy(new File("./src/test/resources/table.tps").toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        //
+        TpsFile first = new TpsFile(tmp);
+        PageIndex built = PageIndex.open(first, tmp, false);
+        assertTrue(sidecar.isFile());
+        assertEquals(10, first.getAllRecords().size());
+        //
+        TpsFile second = new TpsFile(tmp);
+        PageIndex loaded = PageIndex.load(sidecar);
+        assertTrue(loaded.matches(tmp.length(), tmp.lastModified(), second.getHeader().getChanges()));
+        assertEquals(built.getBlockCount(), PageIndex.open(second, tmp, false).getBlockCount());
+        assertEquals(10, second.getAllRecords().size());
+        //
+        assertTrue(tmp.setLastModified(tmp.lastModified() - 10000));
+        assertFalse(loaded.matches(tmp.length(), tmp.lastModified(), second.getHeader().getChanges()));
+        PageIndex rebuilt = PageIndex.open(new TpsFile(tmp), tmp, false);
+        assertEquals(tmp.lastModified(), rebuilt.getLastModified());
+    }
+
+    @Test
+    public void shouldRebuildPageIndexBuiltWhileIgnoringErrors() throws IOException {
+        File tmp = File.createTempFile("table", ".tps");
+        File sidecar = PageIndex.sidecarOf(tmp);
+        tmp.deleteOnExit();
+        sidecar.deleteOnExit();
+        Files.copy(new File("./src/test/resources/table.tps").toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        //
+        assertTrue(PageIndex.open(new TpsFile(tmp), tmp, true).isIgnoreErrors());
+        assertTrue(PageIndex.load(sidecar).isIgnoreErrors());
+        assertTrue(PageIndex.open(new TpsFile(tmp), tmp, true).isIgnoreErrors());
+        // a strict open does not trust the lossy index.
+        assertFalse(PageIndex.open(new TpsFile(tmp), tmp, false).isIgnoreErrors());
+        assertFalse(PageIndex.load(sidecar).isIgnoreErrors());
+        assertFalse(PageIndex.open(new TpsFile(tmp), tmp, true).isIgnoreErrors());
+    }
+
+    @Test
+    public void shouldRebuildCorruptOrUnwritablePageIndex() throws IOException {
+        File tmp = File.createTempFile("table", ".tps");
+        File sidecar = PageIndex.sidecarOf(tmp);
+        tmp.deleteOnExit();
+        sidecar.deleteOnExit();
+        Files.copy(new File("./src/test/resources/table.tps").toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        //
+        Files.write(sidecar.toPath(), new byte[] { 0x54, 0x50, 0x53, 0x49, 0, 0, 0, 1, 0, 0, 0 });
+        TpsFile first = new TpsFile(tmp);
+        assertEquals(1, PageIndex.open(first, tmp, false).getBlockCount());
+        assertEquals(10, first.getAllRecords().size());
+        assertTrue(PageIndex.load(sidecar).matches(tmp.length(), tmp.lastModified(), first.getHeader().getChanges()));
+        //
+        assertTrue(sidecar.delete());
+        assertTrue(sidecar.mkdir());
+        TpsFile second = new TpsFile(tmp);
+        assertEquals(1, PageIndex.open(second, tmp, false).getBlockCount());
+        assertEquals(10, second.getAllRecords().size());
+        assertTrue(sidecar.delete());
+    }
+
     @Test
     public void shouldParseIndexData() {
         List<IndexRecord> indexes = file.getIndexes(1, 0);
@@ -90,4 +471,79 @@ public class TpsFileTest {
         assertEquals(1, indexes.size());
         assertEquals(2, indexes.get(0).getRecordNumber());
     }
+
+    @Test
+    public void shouldFetchMemosFromIndex() {
+        byte[][] pages = new byte[][] { memoPage(memo(1, 0, 0, "Hel"), memo(2, 0, 0, "X"), memo(1, 1, 0, "other")),
+                memoPage(memo(1, 0, 1, "lo"), memo(3, 0, 1, "incomplete")) };
+        byte[] data = new byte[0x200 + pages.length * 0x100];
+        for (int t = 0; t < pages.length; t++) {
+            System.arraycopy(pages[t], 0, data, 0x200 + t * 0x100, pages[t].length);
+        }
+        TpsFile memoFile = new TpsFile(data);
+        MemoIndexCollector indexes = new MemoIndexCollector(memoFile, 1, new int[] { 0 }, false);
+        MemoCollector collector = new MemoCollector(1, 0);
+        for (int t = 0; t < pages.length; t++) {
+            TpsPage page = memoFile.getPageAt(0x200 + t * 0x100, false);
+            for (TpsRecord record : page.getRecords()) {
+                assertEquals(page.getOffset(), record.getPageOffset());
+                collector.onTpsRecord(record);
+                indexes.onTpsRecord(record);
+            }
+            page.flush();
+        }
+        MemoIndex index = indexes.getResult().get(0);
+        Map<Integer, MemoRecord> memos = collector.getResult();
+        assertEquals(4, index.size());
+        assertEquals(2, index.getPageCount());
+        assertEquals("Hello", index.get(1).getDataAsMemo());
+        assertEquals("Hello", index.get(1).getDataAsMemo());
+        assertEquals(memos.get(1).getDataAsMemo(), index.get(1).getDataAsMemo());
+        assertEquals(memos.get(2).getDataAsMemo(), index.get(2).getDataAsMemo());
+        assertTrue(index.contains(3));
+        assertNull(memos.get(3));
+        assertNull(index.get(3));
+        assertNull(index.get(4));
+        index.flush();
+        assertEquals("X", index.get(2).getDataAsMemo());
+        // a memo record that is not where the index says it is.
+        TpsPage elsewhere = new TpsFile(memoPage(memo(5, 0, 0, "moved"))).getPageAt(0, false);
+        index.add((MemoHeader) elsewhere.getRecords().get(0).getHeader(), 0x200);
+        assertNull(index.get(5));
+        assertEquals(0, file.getMemoIndexes(1, new int[] { 0 }, false).get(0).size());
+    }
+
+    private static byte[] memoPage(byte[]... records) {
+        int size = 13;
+        for (byte[] record : records) {
+            size += record.length;
+        }
+        // the page header: address, sizes, record count and flags.
+        byte[] page = new byte[size];
+        page[4] = page[6] = (byte) size;
+        page[8] = (byte) (size - 13);
+        page[10] = (byte) records.length;
+        size = 13;
+        for (byte[] record : records) {
+            System.arraycopy(record, 0, page, size, record.length);
+            size += record.length;
+        }
+        return page;
+    }
+
+    private static byte[] memo(int owner, int memoIdx, int sequenceNr, String text) {
+        byte[] record = new byte[17 + text.length()];
+        record[0] = (byte) 0xC0;
+        record[1] = (byte) (record.length - 5);
+        record[3] = 12;
+        record[8] = 1;
+        record[9] = (byte) 0xFC;
+        record[13] = (byte) owner;
+        record[14] = (byte) memoIdx;
+        record[16] = (byte) sequenceNr;
+        for (int t = 0; t < text.length(); t++) {
+            record[17 + t] = (byte) text.charAt(t);
+        }
+        return record;
+    }
 }
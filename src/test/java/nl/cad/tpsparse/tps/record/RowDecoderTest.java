@@ -0,0 +1,56 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps.record;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import nl.cad.tpsparse.bin.RandomAccess;
+
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+import org.junit.Test;
+
+public class RowDecoderTest {
+
+    private RowDecoder decoder() {
+        // a DATE field 'D' at 0 and a TIME field 'T' at 4.
+        FieldDefinitionRecord date = new FieldDefinitionRecord(new RandomAccess("04 00 00 44 00 01 00 04 00 00 00 00 00"));
+        FieldDefinitionRecord time = new FieldDefinitionRecord(new RandomAccess("05 04 00 54 00 01 00 04 00 00 00 01 00"));
+        return new RowDecoder(Arrays.asList(date, time), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void shouldDecodeDateAndTime() {
+        assertEquals(Arrays.asList(new LocalDate(2013, 12, 31), new LocalTime(9, 30)),
+                decoder().decode(new byte[] { 0x1F, 0x0C, (byte) 0xDD, 0x07, 0x00, 0x00, 0x1E, 0x09 }));
+        assertNull(decoder().decode(new byte[] { 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x1E, 0x09 }).get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidDate() {
+        decoder().decode(new byte[] { 0x1F, 0x0B, (byte) 0xDD, 0x07, 0x00, 0x00, 0x1E, 0x09 });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidMinutes() {
+        // 10:70 must not become 11:10.
+        decoder().decode(new byte[] { 0x1F, 0x0C, (byte) 0xDD, 0x07, 0x00, 0x00, 0x46, 0x0A });
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *  Copyright 2012-2013 E.Hooijmeijer
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package nl.cad.tpsparse.tps.record;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import nl.cad.tpsparse.bin.RandomAccess;
+
+import org.junit.Test;
+
+public class RowPredicateTest {
+
+    // a DATE field 'D' at 0.
+    private final FieldDefinitionRecord date = new FieldDefinitionRecord(new RandomAccess("04 00 00 44 00 01 00 04 00 00 00 00 00"));
+
+    private static RandomAccess row(int year, int month, int day) {
+        return new RandomAccess(new byte[] { (byte) day, (byte) month, (byte) year, (byte) (year >> 8) });
+    }
+
+    @Test
+    public void shouldNotMatchNullDateInRange() {
+        RowPredicate before = RowPredicate.between(date, null, "2012-12-31", StandardCharsets.ISO_8859_1);
+        assertTrue(before.matches(row(2012, 12, 31)));
+        assertFalse(before.matches(row(2013, 1, 1)));
+        assertFalse(before.matches(row(0, 0, 0)));
+        assertFalse(RowPredicate.between(date, null, null, StandardCharsets.ISO_8859_1).matches(row(0, 0, 0)));
+        assertFalse(RowPredicate.in(date, Arrays.asList("2012-12-31"), StandardCharsets.ISO_8859_1).matches(row(0, 0, 0)));
+    }
+
+    @Test
+    public void shouldMatchNullDateWhenAsked() {
+        assertTrue(RowPredicate.equalTo(date, "", StandardCharsets.ISO_8859_1).matches(row(0, 0, 0)));
+        assertFalse(RowPredicate.equalTo(date, "", StandardCharsets.ISO_8859_1).matches(row(2012, 12, 31)));
+        assertTrue(RowPredicate.in(date, Arrays.asList("", "2012-12-31"), StandardCharsets.ISO_8859_1).matches(row(0, 0, 0)));
+    }
+}